@@ -1,8 +1,19 @@
 import tester.*;
 import javalib.impworld.*;
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 import javalib.worldimages.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.stream.*;
+import java.util.zip.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.lang.management.*;
+import com.sun.management.HotSpotDiagnosticMXBean;
 
 // Represents the wall in the maze
 class Walls {
@@ -18,7 +29,7 @@ class Walls {
 }
 
 // Path class (Edges)
-class Path {
+class Path implements Comparable<Path> {
 
   int x;
   int y;
@@ -53,6 +64,15 @@ class Path {
     return result;
   }
 
+  // Orders paths by row, then column. Many paths share a hashCode on big
+  // boards, and HashMap can only search those quickly when they are Comparable
+  public int compareTo(Path other) {
+    if (this.y != other.y) {
+      return Integer.compare(this.y, other.y);
+    }
+    return Integer.compare(this.x, other.x);
+  }
+
   void changeColor(Color type) {
     this.curColor = type;
   }
@@ -85,16 +105,24 @@ class UnionFindPath {
 
   // Finds the representative path for any given path
   Path find(Path key) {
+    Path parent = this.pointer.get(key);
+
     // Create a new hash if it doesn't exist
-    if (!this.pointer.containsKey(key)) {
+    if (parent == null) {
       this.pointer.put(key, key);
       return key;
     }
 
-    // Finds the root of the key
+    // Finds the root of the key, pointing each path on the way at the one
+    // above its parent so that finding them again is quick
     Path root = key;
-    while (this.pointer.get(root) != root) {
-      root = this.pointer.get(root);
+    while (parent != root) {
+      Path grandparent = this.pointer.get(parent);
+      if (grandparent != parent) {
+        this.pointer.put(root, grandparent);
+      }
+      root = grandparent;
+      parent = this.pointer.get(root);
     }
     return root;
   }
@@ -119,6 +147,10 @@ class UnionFindPath {
 
 // A simulation for a maze
 class MazeWorld extends World {
+  // The seconds between ticks, which is also how long a threaded search
+  // takes for each step
+  static final double TICK_RATE = 0.005;
+
   int yLength;
   int xLength;
   Random rand;
@@ -135,14 +167,24 @@ class MazeWorld extends World {
   Path curPath;
   Map<Path, Path> path;
   Color choice;
+  boolean threaded;
+  SearchWorker worker;
+  ICellLayout layout;
+  MazeGrid grid;
 
   MazeWorld(int xLength, int yLength) {
     this(xLength, yLength, new Random().nextInt());
   }
 
   MazeWorld(int xLength, int yLength, int seed) {
-    this.xLength = xLength;
-    this.yLength = yLength;
+    this(new RowMajorLayout(xLength, yLength), seed);
+  }
+
+  // Creates a maze whose cells are stored in pathBoard in the given layout
+  MazeWorld(ICellLayout layout, int seed) {
+    this.xLength = layout.width();
+    this.yLength = layout.height();
+    this.layout = layout;
     this.board = new ArrayList<Walls>();
     this.wallBoard = new ArrayList<Walls>();
     this.pathBoard = new ArrayList<Path>();
@@ -161,35 +203,55 @@ class MazeWorld extends World {
     // Create the Walls
     this.createWalls();
 
-    // Run kruskals in order to choose the walls
+    // Run kruskals in order to choose the walls. The union find keeps a
+    // parent index per cell, since Path hash codes collide more and more as
+    // the board grows taller
     this.board.sort(new WallSort());
-    UnionFindPath ufp = new UnionFindPath();
+    int[] parent = new int[this.layout.size()];
+    for (int i = 0; i < parent.length; i++) {
+      parent[i] = i;
+    }
     ArrayList<Walls> tempWalls = new ArrayList<Walls>();
+    ArrayList<Walls> walls = new ArrayList<Walls>();
 
     for (Walls wall : this.board) {
-      if (ufp.union(wall.fromPath, wall.toPath)) {
+      int root1 = MazeGrid.findRoot(parent, this.layout.index(wall.fromPath.x, wall.fromPath.y));
+      int root2 = MazeGrid.findRoot(parent, this.layout.index(wall.toPath.x, wall.toPath.y));
+      if (root1 != root2) {
+        parent[root2] = root1;
         tempWalls.add(wall);
       }
+      else {
+        walls.add(wall);
+      }
     }
-    this.wallBoard = this.board;
-    this.wallBoard.removeAll(tempWalls);
+    this.wallBoard = walls;
     this.board = tempWalls;
 
+    // The passages of each cell, so moves and searches need not scan board
+    this.grid = new MazeGrid(this);
+
     // Change the colors for the start and end point
-    this.first = this.pathBoard.get(0);
+    this.first = this.pathBoard.get(this.layout.index(0, 0));
     this.first.changeColor(Color.green);
-    this.last = this.pathBoard.get(this.xLength * this.yLength - 1);
+    this.last = this.pathBoard.get(this.layout.index(this.xLength - 1, this.yLength - 1));
     this.last.changeColor(Color.red);
-    this.curPath = this.pathBoard.get(0);
+    this.curPath = this.first;
   }
 
   // Create the Paths for the board
-  // EFFECT: Adds Paths to cellBoard
+  // EFFECT: Adds Paths to cellBoard in the order of the layout, with null
+  // for any padding
   void createPath() {
-    for (int y = 0; y < this.yLength; y++) {
-      for (int x = 0; x < this.xLength; x++) {
+    for (int i = 0; i < this.layout.size(); i++) {
+      int x = this.layout.x(i);
+      int y = this.layout.y(i);
+      if (x < this.xLength && y < this.yLength) {
         this.pathBoard.add(new Path(x, y));
       }
+      else {
+        this.pathBoard.add(null);
+      }
     }
   }
 
@@ -198,13 +260,13 @@ class MazeWorld extends World {
   void createWalls() {
     for (int x = 0; x < this.xLength; x++) {
       for (int y = 0; y < this.yLength; y++) {
-        Path cur = this.pathBoard.get(x + y * this.xLength);
+        Path cur = this.pathBoard.get(this.layout.index(x, y));
         if (y < this.yLength - 1) {
-          Path next = this.pathBoard.get(x + (y + 1) * this.xLength);
+          Path next = this.pathBoard.get(this.layout.index(x, y + 1));
           this.board.add(new Walls(cur, next, this.rand.nextInt()));
         }
         if (x < this.xLength - 1) {
-          Path next = this.pathBoard.get(x + 1 + y * this.xLength);
+          Path next = this.pathBoard.get(this.layout.index(x + 1, y));
           this.board.add(new Walls(cur, next, this.rand.nextInt()));
         }
 
@@ -220,18 +282,37 @@ class MazeWorld extends World {
     if (key.equals("b") && !this.search) {
       this.search = true;
       this.worklist = new Queue<Path>();
-      this.worklist.add(this.pathBoard.get(0));
+      this.worklist.add(this.first);
       this.choice = Color.cyan;
+      if (this.threaded) {
+        this.startWorker(true);
+      }
     }
     // Starts depth first search
     else if (key.equals("d") && !this.search) {
       this.search = true;
       this.worklist = new Stack<Path>();
-      this.worklist.add(this.pathBoard.get(0));
+      this.worklist.add(this.first);
       this.choice = Color.magenta;
+      if (this.threaded) {
+        this.startWorker(false);
+      }
+    }
+    // Toggles running the searches on their own thread
+    else if (key.equals("w") && !this.search) {
+      this.threaded = !this.threaded;
+    }
+    // Solves the maze at once over the junctions
+    else if (key.equals("c") && !this.search && !this.winScreen) {
+      this.choice = Color.lightGray;
+      this.solveCompacted();
     }
     // Resets the board and creates a new maze
     else if (key.equals("r")) {
+      if (this.worker != null) {
+        this.worker.stop();
+        this.worker = null;
+      }
       this.board = new ArrayList<Walls>();
       this.wallBoard = new ArrayList<Walls>();
       this.pathBoard = new ArrayList<Path>();
@@ -266,195 +347,2506 @@ class MazeWorld extends World {
 
   // Checks the attempt path and sees if it is a possible movement
   boolean edgeExists(Path attempt) {
-    boolean result = false;
-    for (Walls w : this.board) {
-      if (w.fromPath.equals(this.curPath) && w.toPath.equals(attempt)
-          || w.toPath.equals(this.curPath) && w.fromPath.equals(attempt)) {
-        result = true;
-      }
+    if (attempt == null) {
+      return false;
     }
-    return result;
+    int direction = 0;
+    if (attempt.x == this.curPath.x + 1 && attempt.y == this.curPath.y) {
+      direction = MazeGrid.RIGHT;
+    }
+    else if (attempt.x == this.curPath.x - 1 && attempt.y == this.curPath.y) {
+      direction = MazeGrid.LEFT;
+    }
+    else if (attempt.x == this.curPath.x && attempt.y == this.curPath.y + 1) {
+      direction = MazeGrid.DOWN;
+    }
+    else if (attempt.x == this.curPath.x && attempt.y == this.curPath.y - 1) {
+      direction = MazeGrid.UP;
+    }
+    int cell = this.layout.index(this.curPath.x, this.curPath.y);
+    return (this.grid.passages[cell] & direction) != 0;
   }
 
   // Changes the location of the block
   // EFFECT: Moves a the block a certain direction depending on the key stroke
   void move(String type) {
     Path attempt = null;
-    int attemptNum = 0;
+    int attemptX = this.curPath.x;
+    int attemptY = this.curPath.y;
     if (type.equals("right")) {
-      attemptNum = this.curPath.x + 1 + this.curPath.y * this.xLength;
+      attemptX += 1;
     }
     else if (type.equals("left")) {
-      attemptNum = this.curPath.x - 1 + this.curPath.y * this.xLength;
+      attemptX -= 1;
     }
     else if (type.equals("up")) {
-      attemptNum = this.curPath.x + (this.curPath.y - 1) * this.xLength;
+      attemptY -= 1;
+    }
+    else if (type.equals("down")) {
+      attemptY += 1;
+    }
+
+    // Never moves back onto the start, which the solution is traced back to
+    if (attemptX >= 0 && attemptX < this.xLength && attemptY >= 0 && attemptY < this.yLength
+        && (attemptX > 0 || attemptY > 0)) {
+      attempt = this.pathBoard.get(this.layout.index(attemptX, attemptY));
+    }
+
+    if (edgeExists(attempt)) {
+      this.curPath.changeColor(Color.lightGray);
+      this.path.put(attempt, this.curPath);
+      this.curPath = attempt;
+      this.curPath.changeColor(Color.pink);
+      if (attempt.equals(this.last)) {
+        this.worklist = new Queue<Path>();
+        this.worklist.add(this.first);
+        this.choice = Color.lightGray;
+        while (!this.complete) {
+          this.searchHelp(this.worklist);
+        }
+        this.winScreen = true;
+        this.manual = false;
+      }
+    }
+  }
+
+  // Solves the maze over its junction graph instead of cell by cell
+  // EFFECT: links each cell on the solution to the one before it in path, so
+  // onTick can remake it, and marks the maze complete
+  void solveCompacted() {
+    int[] cells = new JunctionGraph(this.grid).solve();
+    for (int i = 1; i < cells.length; i++) {
+      this.path.put(this.pathBoard.get(cells[i]), this.pathBoard.get(cells[i - 1]));
+    }
+    this.last.changeColor(Color.orange);
+    this.complete = true;
+  }
+
+  // On tick, search the maze using breadth first or depth first search
+  public void onTick() {
+    if (this.search && this.worker != null) {
+      this.applySnapshot();
+    }
+    else if (this.search && !this.manual) {
+      searchHelp(this.worklist);
+    }
+    else if (this.complete) {
+      remake(this.last);
+    }
+  }
+
+  // Starts a search on its own thread, at the rate of one step per tick
+  // EFFECT: sets worker to the running search
+  void startWorker(boolean breadth) {
+    long tickNanos = (long) (TICK_RATE * 1e9);
+    this.worker = new SearchWorker(this.grid, breadth, tickNanos, tickNanos);
+    this.worker.start();
+  }
+
+  // Colors the cells from the newest snapshot of the threaded search
+  // EFFECT: changes the colors of searched cells, and ends the search once
+  // the snapshot shows it finished
+  void applySnapshot() {
+    byte[] states = this.worker.snapshot();
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] == SearchWorker.SOLUTION) {
+        this.pathBoard.get(i).changeColor(Color.orange);
+      }
+      else if (states[i] == SearchWorker.SEARCHED) {
+        this.pathBoard.get(i).changeColor(this.choice);
+      }
+    }
+    if (this.worker.snapshotDone()) {
+      this.worker = null;
+      this.search = false;
+      this.complete = true;
+    }
+  }
+
+  // Remakes the correct path to get to the end once the solution is found
+  void remake(Path before) {
+    Path onTrack = this.path.get(before);
+    if (onTrack != null) {
+      onTrack.changeColor(Color.orange);
+      remake(onTrack);
+    }
+  }
+
+  // The function to find the end path
+  // EFFECT: changes searched blocks into a certain color, depending on the search
+  // pattern. Also adds the path to ongoing list of paths gone through
+  void searchHelp(ICollection<Path> worklist) {
+    if (!worklist.isEmpty()) {
+      Path next = worklist.remove();
+      next.changeColor(this.choice);
+
+      if (next.equals(this.last)) {
+        this.last.changeColor(Color.orange);
+        this.search = false;
+        this.complete = true;
+      }
+      else {
+        // The maze is a tree, so every passage but the one back leads somewhere new
+        int cell = this.layout.index(next.x, next.y);
+        Path before = this.path.get(next);
+        for (int direction = MazeGrid.RIGHT; direction <= MazeGrid.UP; direction <<= 1) {
+          if ((this.grid.passages[cell] & direction) != 0) {
+            Path after = this.pathBoard.get(this.grid.neighbor(cell, direction));
+            if (!after.equals(before)) {
+              this.worklist.add(after);
+              this.path.put(after, next);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // Makes a visual representation of the maze
+  public WorldScene makeScene() {
+    WorldScene holder = new WorldScene(this.xLength * 10, this.yLength * 10);
+    for (Path path : this.pathBoard) {
+      if (path == null) {
+        continue;
+      }
+      holder.placeImageXY(new RectangleImage(10, 10, OutlineMode.SOLID, path.curColor),
+          path.x * 10 + 5, path.y * 10 + 5);
+    }
+    for (Walls wall : this.wallBoard) {
+      Path fromPath = wall.fromPath;
+      Path toPath = wall.toPath;
+      if ((fromPath.x - toPath.x) == 0) {
+        holder.placeImageXY(new LineImage(new Posn(10, 0), Color.black), fromPath.x * 10 + 5,
+            fromPath.y * 10 + 10);
+      }
+      else {
+        holder.placeImageXY(new LineImage(new Posn(0, 10), Color.black), fromPath.x * 10 + 10,
+            fromPath.y * 10 + 5);
+      }
+    }
+    if (this.winScreen) {
+      holder.placeImageXY(new TextImage("Congratulations :)", Color.black), this.xLength * 5,
+          this.yLength * 10 + 50);
+    }
+
+    return holder;
+  }
+
+  // Saves the maze, along with the colors of any search and solution, as an
+  // image that is drawn straight from the walls
+  // EFFECT: writes a PNG, or a PGM if the name ends in .pgm, to the file
+  void exportImage(String fileName) throws IOException {
+    new MazeExporter(new MazeWorldView(this), 10, true).export(fileName);
+  }
+}
+
+//Represents a mutable collection of items
+interface ICollection<T> {
+  // Is this collection empty?
+  boolean isEmpty();
+
+  // EFFECT: adds the item to the collection
+  void add(T item);
+
+  // Returns the first item of the collection
+  // EFFECT: removes that first item
+  T remove();
+}
+
+// a representation of a stack
+class Stack<T> implements ICollection<T> {
+  ArrayDeque<T> contents;
+
+  Stack() {
+    this.contents = new ArrayDeque<T>();
+  }
+
+  // Is this collection empty?
+  public boolean isEmpty() {
+    return this.contents.isEmpty();
+  }
+
+  // Returns the first item of the collection
+  // EFFECT: removes that first item
+  public T remove() {
+    return this.contents.removeFirst();
+  }
+
+  // EFFECT: adds the item to the collection
+  public void add(T item) {
+    this.contents.addFirst(item);
+  }
+}
+
+class Queue<T> implements ICollection<T> {
+  ArrayDeque<T> contents;
+
+  Queue() {
+    this.contents = new ArrayDeque<T>();
+  }
+
+  // Is this collection empty?
+  public boolean isEmpty() {
+    return this.contents.isEmpty();
+  }
+
+  // Returns the first item of the collection
+  // EFFECT: removes that first item
+  public T remove() {
+    return this.contents.removeFirst();
+  }
+
+  // EFFECT: adds the item to the collection
+  public void add(T item) {
+    this.contents.addLast(item);
+  }
+}
+
+// Represents a read-only view of the cells and passages of a maze
+interface IMazeView {
+  // The number of cells across
+  int width();
+
+  // The number of cells down
+  int height();
+
+  // Is there a passage from the cell at (x, y) to the cell on its right?
+  boolean openRight(int x, int y);
+
+  // Is there a passage from the cell at (x, y) to the cell below it?
+  boolean openDown(int x, int y);
+
+  // The current color of the cell at (x, y)
+  Color colorAt(int x, int y);
+}
+
+// A view of a MazeWorld, with the passages of its grid and the colors of its cells
+class MazeWorldView implements IMazeView {
+  MazeWorld world;
+
+  MazeWorldView(MazeWorld world) {
+    this.world = world;
+  }
+
+  public int width() {
+    return this.world.xLength;
+  }
+
+  public int height() {
+    return this.world.yLength;
+  }
+
+  public boolean openRight(int x, int y) {
+    return this.world.grid.openRight(x, y);
+  }
+
+  public boolean openDown(int x, int y) {
+    return this.world.grid.openDown(x, y);
+  }
+
+  public Color colorAt(int x, int y) {
+    return this.world.pathBoard.get(this.world.layout.index(x, y)).curColor;
+  }
+}
+
+// Writes a maze out as a PGM or PNG image, one row of cells at a time,
+// so the whole image is never held in memory
+class MazeExporter {
+  IMazeView view;
+  int cellSize;
+  boolean colors;
+
+  // cellSize includes the one pixel line used for the right and bottom walls
+  MazeExporter(IMazeView view, int cellSize, boolean colors) {
+    if (cellSize < 2) {
+      throw new IllegalArgumentException("Cell size must be at least 2 pixels");
+    }
+    this.view = view;
+    this.cellSize = cellSize;
+    this.colors = colors;
+  }
+
+  // The width of the image in pixels, including the left border
+  int imageWidth() {
+    return this.view.width() * this.cellSize + 1;
+  }
+
+  // The height of the image in pixels, including the top border
+  int imageHeight() {
+    return this.view.height() * this.cellSize + 1;
+  }
+
+  // Writes the image to the given file, as a PNG unless the name ends in .pgm
+  void export(String fileName) throws IOException {
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16);
+    try {
+      if (fileName.toLowerCase().endsWith(".pgm")) {
+        this.writePGM(out);
+      }
+      else {
+        this.writePNG(out);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // Fills in the scanlines for the row of cells at y, as packed RGB values
+  // EFFECT: overwrites the given band, one int array per scanline
+  void fillBand(int y, int[][] band) {
+    int black = Color.black.getRGB();
+    int width = this.view.width();
+    int height = this.view.height();
+    int last = this.cellSize - 1;
+    for (int x = 0; x < width; x++) {
+      int color = this.colors ? this.view.colorAt(x, y).getRGB() : Color.white.getRGB();
+      boolean right = this.view.openRight(x, y);
+      boolean down = this.view.openDown(x, y);
+      // The corner is open only when no wall meets it
+      boolean corner = right && down && this.view.openDown(x + 1, y)
+          && (y + 1 >= height || this.view.openRight(x, y + 1));
+      int start = 1 + x * this.cellSize;
+      for (int row = 0; row < this.cellSize; row++) {
+        int[] line = band[row];
+        for (int col = 0; col < last; col++) {
+          line[start + col] = row == last && !down ? black : color;
+        }
+        if (row < last) {
+          line[start + last] = right ? color : black;
+        }
+        else {
+          line[start + last] = corner ? color : black;
+        }
+      }
+    }
+    for (int row = 0; row < this.cellSize; row++) {
+      band[row][0] = black;
+    }
+  }
+
+  // Writes the maze as a binary greyscale PGM
+  // EFFECT: writes the whole image to out
+  void writePGM(OutputStream out) throws IOException {
+    int width = this.imageWidth();
+    out.write(("P5\n" + width + " " + this.imageHeight() + "\n255\n").getBytes("US-ASCII"));
+    byte[] line = new byte[width];
+    out.write(line);
+    int[][] band = new int[this.cellSize][width];
+    for (int y = 0; y < this.view.height(); y++) {
+      this.fillBand(y, band);
+      for (int[] pixels : band) {
+        for (int i = 0; i < width; i++) {
+          int rgb = pixels[i];
+          line[i] = (byte) ((((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587
+              + (rgb & 0xff) * 114) / 1000);
+        }
+        out.write(line);
+      }
+    }
+    out.flush();
+  }
+
+  // Writes the maze as an 8-bit RGB PNG, deflating each band as it is made
+  // EFFECT: writes the whole image to out
+  void writePNG(OutputStream out) throws IOException {
+    int width = this.imageWidth();
+    out.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt(width);
+    headerData.writeInt(this.imageHeight());
+    headerData.writeByte(8); // bit depth
+    headerData.writeByte(2); // truecolor
+    headerData.writeByte(0); // deflate
+    headerData.writeByte(0); // adaptive filtering
+    headerData.writeByte(0); // no interlace
+    PNGChunkStream.writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+    // The stream does not end a Deflater it was given, so its native memory
+    // is freed here rather than whenever the Cleaner gets to it
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    try {
+      DeflaterOutputStream idat = new DeflaterOutputStream(new PNGChunkStream(out, "IDAT"),
+          deflater, 1 << 16);
+      // Each scanline starts with a filter type byte, always 0 (none)
+      byte[] line = new byte[1 + width * 3];
+      idat.write(line);
+      int[][] band = new int[this.cellSize][width];
+      for (int y = 0; y < this.view.height(); y++) {
+        this.fillBand(y, band);
+        for (int[] pixels : band) {
+          for (int i = 0; i < width; i++) {
+            int rgb = pixels[i];
+            line[1 + i * 3] = (byte) (rgb >> 16);
+            line[2 + i * 3] = (byte) (rgb >> 8);
+            line[3 + i * 3] = (byte) rgb;
+          }
+          idat.write(line);
+        }
+      }
+      idat.close();
+    }
+    finally {
+      deflater.end();
+    }
+
+    PNGChunkStream.writeChunk(out, "IEND", new byte[0], 0);
+    out.flush();
+  }
+}
+
+// Buffers bytes and writes them to the underlying stream as PNG chunks of one type
+class PNGChunkStream extends OutputStream {
+  OutputStream out;
+  String type;
+  byte[] buffer;
+  int count;
+
+  PNGChunkStream(OutputStream out, String type) {
+    this.out = out;
+    this.type = type;
+    this.buffer = new byte[1 << 16];
+    this.count = 0;
+  }
+
+  // Writes a single chunk with its length and CRC
+  // EFFECT: writes the chunk to out
+  static void writeChunk(OutputStream out, String type, byte[] data, int length)
+      throws IOException {
+    DataOutputStream dataOut = new DataOutputStream(out);
+    byte[] typeBytes = type.getBytes("US-ASCII");
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    dataOut.writeInt(length);
+    dataOut.write(typeBytes);
+    dataOut.write(data, 0, length);
+    dataOut.writeInt((int) crc.getValue());
+  }
+
+  // EFFECT: writes out a chunk once the buffer is full
+  public void write(int b) throws IOException {
+    if (this.count == this.buffer.length) {
+      this.flushChunk();
+    }
+    this.buffer[this.count] = (byte) b;
+    this.count++;
+  }
+
+  // EFFECT: copies the bytes into the buffer, writing out full chunks as it goes
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (this.count == this.buffer.length) {
+        this.flushChunk();
+      }
+      int size = Math.min(length, this.buffer.length - this.count);
+      System.arraycopy(bytes, offset, this.buffer, this.count, size);
+      this.count += size;
+      offset += size;
+      length -= size;
+    }
+  }
+
+  // EFFECT: writes whatever is buffered as a chunk
+  void flushChunk() throws IOException {
+    if (this.count > 0) {
+      writeChunk(this.out, this.type, this.buffer, this.count);
+      this.count = 0;
+    }
+  }
+
+  // EFFECT: writes the last chunk, leaving the underlying stream open
+  public void close() throws IOException {
+    this.flushChunk();
+    this.out.flush();
+  }
+}
+
+// Maps the cells of a board to the indexes of the arrays that hold them
+interface ICellLayout {
+  // The number of cells across
+  int width();
+
+  // The number of cells down
+  int height();
+
+  // The number of indexes, which may include padding that is not a cell
+  int size();
+
+  // The index of the cell at (x, y)
+  int index(int x, int y);
+
+  // The column of the cell at the index
+  int x(int index);
+
+  // The row of the cell at the index
+  int y(int index);
+
+  // The index of the neighbor in one of the MazeGrid directions, which must
+  // be on the board
+  int neighbor(int index, int direction);
+}
+
+// Stores the cells one row after another, so cells above and below each
+// other are a whole row apart
+class RowMajorLayout implements ICellLayout {
+  int width;
+  int height;
+
+  RowMajorLayout(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int size() {
+    return this.width * this.height;
+  }
+
+  public int index(int x, int y) {
+    return x + y * this.width;
+  }
+
+  public int x(int index) {
+    return index % this.width;
+  }
+
+  public int y(int index) {
+    return index / this.width;
+  }
+
+  public int neighbor(int index, int direction) {
+    if (direction == MazeGrid.RIGHT) {
+      return index + 1;
+    }
+    else if (direction == MazeGrid.LEFT) {
+      return index - 1;
+    }
+    else if (direction == MazeGrid.DOWN) {
+      return index + this.width;
+    }
+    else {
+      return index - this.width;
+    }
+  }
+}
+
+// Stores the cells in square tiles of 2^tileBits cells a side, one row of
+// tiles after another, and in Z-order (Morton order) inside each tile, so
+// cells near each other in any direction are usually near each other in
+// memory. A tile that covers the whole board gives plain Morton order. The
+// board is padded out to whole tiles
+class MortonLayout implements ICellLayout {
+  // The bits of the x and y coordinates within an index, interleaved
+  static final int X_BITS = 0x55555555;
+  static final int Y_BITS = 0xAAAAAAAA;
+
+  int width;
+  int height;
+  int tileBits;
+  int tilesAcross;
+  int tilesDown;
+  // The bits of an index that give its place inside its tile
+  int inTile;
+  int xMask;
+  int yMask;
+
+  MortonLayout(int width, int height, int tileBits) {
+    if (tileBits < 0 || tileBits > 15) {
+      throw new IllegalArgumentException("Tiles must be 1 to 2^15 cells a side");
+    }
+    int tile = 1 << tileBits;
+    long tiles = (long) ((width + tile - 1) / tile) * ((height + tile - 1) / tile);
+    if ((tiles << (2 * tileBits)) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Boards must fit in 2^31 indexes");
+    }
+    this.width = width;
+    this.height = height;
+    this.tileBits = tileBits;
+    this.tilesAcross = (width + tile - 1) / tile;
+    this.tilesDown = (height + tile - 1) / tile;
+    this.inTile = (1 << (2 * tileBits)) - 1;
+    this.xMask = X_BITS & this.inTile;
+    this.yMask = Y_BITS & this.inTile;
+  }
+
+  // A layout in plain Morton order, with tiles as wide as the shorter side, so
+  // a square board is one tile and a long one is a single row or column of them
+  MortonLayout(int width, int height) {
+    this(width, height,
+        32 - Integer.numberOfLeadingZeros(Math.max(1, Math.min(width, height) - 1)));
+  }
+
+  // Spreads the low 16 bits of the value out into the even bits
+  static int spread(int value) {
+    value &= 0xffff;
+    value = (value | (value << 8)) & 0x00ff00ff;
+    value = (value | (value << 4)) & 0x0f0f0f0f;
+    value = (value | (value << 2)) & 0x33333333;
+    value = (value | (value << 1)) & 0x55555555;
+    return value;
+  }
+
+  // Gathers the even bits of the value back into the low 16 bits
+  static int gather(int value) {
+    value &= 0x55555555;
+    value = (value | (value >>> 1)) & 0x33333333;
+    value = (value | (value >>> 2)) & 0x0f0f0f0f;
+    value = (value | (value >>> 4)) & 0x00ff00ff;
+    value = (value | (value >>> 8)) & 0x0000ffff;
+    return value;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int size() {
+    return (this.tilesAcross * this.tilesDown) << (2 * this.tileBits);
+  }
+
+  public int index(int x, int y) {
+    int tile = (y >> this.tileBits) * this.tilesAcross + (x >> this.tileBits);
+    int mask = (1 << this.tileBits) - 1;
+    return (tile << (2 * this.tileBits)) | spread(x & mask) | (spread(y & mask) << 1);
+  }
+
+  public int x(int index) {
+    int tile = index >>> (2 * this.tileBits);
+    return ((tile % this.tilesAcross) << this.tileBits) | gather(index & this.inTile);
+  }
+
+  public int y(int index) {
+    int tile = index >>> (2 * this.tileBits);
+    return ((tile / this.tilesAcross) << this.tileBits) | gather((index & this.inTile) >>> 1);
+  }
+
+  // Steps inside a tile by adding or taking one from the interleaved x or y
+  // bits directly, and only works out the coordinates to cross into the next tile
+  public int neighbor(int index, int direction) {
+    int place = index & this.inTile;
+    int tile = index - place;
+    if (direction == MazeGrid.RIGHT) {
+      if ((place & this.xMask) == this.xMask) {
+        return this.index(this.x(index) + 1, this.y(index));
+      }
+      return tile | (((place | this.yMask) + 1) & this.xMask) | (place & this.yMask);
+    }
+    else if (direction == MazeGrid.LEFT) {
+      if ((place & this.xMask) == 0) {
+        return this.index(this.x(index) - 1, this.y(index));
+      }
+      return tile | (((place & this.xMask) - 1) & this.xMask) | (place & this.yMask);
+    }
+    else if (direction == MazeGrid.DOWN) {
+      if ((place & this.yMask) == this.yMask) {
+        return this.index(this.x(index), this.y(index) + 1);
+      }
+      return tile | (((place | this.xMask) + 1) & this.yMask) | (place & this.xMask);
+    }
+    else {
+      if ((place & this.yMask) == 0) {
+        return this.index(this.x(index), this.y(index) - 1);
+      }
+      return tile | (((place & this.yMask) - 1) & this.yMask) | (place & this.xMask);
+    }
+  }
+}
+
+// The passages of a maze packed into one byte per cell, for work on big boards
+class MazeGrid implements IMazeView {
+  static final int RIGHT = 1;
+  static final int DOWN = 2;
+  static final int LEFT = 4;
+  static final int UP = 8;
+
+  int width;
+  int height;
+  ICellLayout layout;
+  // Indexed by the layout, with no passages out of any padding
+  byte[] passages;
+
+  // Creates a grid, stored a row at a time, with every wall in place
+  MazeGrid(int width, int height) {
+    this(new RowMajorLayout(width, height));
+  }
+
+  // Creates a grid stored in the given layout with every wall in place
+  MazeGrid(ICellLayout layout) {
+    this.width = layout.width();
+    this.height = layout.height();
+    this.layout = layout;
+    this.passages = new byte[layout.size()];
+  }
+
+  // Creates a grid with the passages of the given maze, in the same layout
+  MazeGrid(MazeWorld world) {
+    this(world.layout);
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.width; x++) {
+        if (x < this.width - 1) {
+          this.open(this.layout.index(x, y), RIGHT);
+        }
+        if (y < this.height - 1) {
+          this.open(this.layout.index(x, y), DOWN);
+        }
+      }
+    }
+    // Built from the walls, as makeScene draws them
+    for (Walls wall : world.wallBoard) {
+      int cell = this.layout.index(wall.fromPath.x, wall.fromPath.y);
+      this.close(cell, wall.fromPath.x == wall.toPath.x ? DOWN : RIGHT);
+    }
+  }
+
+  // Creates a random maze, stored a row at a time, with Kruskal's algorithm
+  static MazeGrid kruskal(int width, int height, Random rand) {
+    return kruskal(new RowMajorLayout(width, height), rand);
+  }
+
+  // Creates a random maze with Kruskal's algorithm, like initMaze, but over
+  // primitive arrays: the edges are shuffled instead of sorted by weight, and
+  // the union find keeps a parent index per cell
+  static MazeGrid kruskal(ICellLayout layout, Random rand) {
+    MazeGrid grid = new MazeGrid(layout);
+    int size = grid.size();
+    // Edge e joins cell e / 2 to its right (even) or lower (odd) neighbor
+    int[] edges = new int[2 * grid.cells()];
+    int count = 0;
+    for (int y = 0; y < grid.height; y++) {
+      for (int x = 0; x < grid.width; x++) {
+        if (x < grid.width - 1) {
+          edges[count++] = 2 * layout.index(x, y);
+        }
+        if (y < grid.height - 1) {
+          edges[count++] = 2 * layout.index(x, y) + 1;
+        }
+      }
+    }
+    for (int i = count - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      int temp = edges[i];
+      edges[i] = edges[j];
+      edges[j] = temp;
+    }
+
+    int[] parent = new int[size];
+    for (int cell = 0; cell < size; cell++) {
+      parent[cell] = cell;
+    }
+    int joined = 0;
+    for (int i = 0; i < count && joined < grid.cells() - 1; i++) {
+      int cell = edges[i] / 2;
+      int direction = edges[i] % 2 == 0 ? RIGHT : DOWN;
+      int root1 = findRoot(parent, cell);
+      int root2 = findRoot(parent, grid.neighbor(cell, direction));
+      if (root1 != root2) {
+        parent[root2] = root1;
+        grid.open(cell, direction);
+        joined++;
+      }
+    }
+    return grid;
+  }
+
+  // Finds the representative of a cell in the given union find
+  // EFFECT: points each cell on the way at its grandparent to keep paths short
+  static int findRoot(int[] parent, int cell) {
+    while (parent[cell] != cell) {
+      parent[cell] = parent[parent[cell]];
+      cell = parent[cell];
+    }
+    return cell;
+  }
+
+  // The number of indexes in the grid, including any padding
+  int size() {
+    return this.passages.length;
+  }
+
+  // The number of cells on the board
+  int cells() {
+    return this.width * this.height;
+  }
+
+  // The index of the top left cell, where the mazes start
+  int first() {
+    return this.layout.index(0, 0);
+  }
+
+  // The index of the bottom right cell, where the mazes end
+  int last() {
+    return this.layout.index(this.width - 1, this.height - 1);
+  }
+
+  // The cell on the other side of the given direction, which must be on the board
+  int neighbor(int cell, int direction) {
+    return this.layout.neighbor(cell, direction);
+  }
+
+  // The direction that leads back from a neighbor
+  static int opposite(int direction) {
+    return direction < LEFT ? direction << 2 : direction >> 2;
+  }
+
+  // EFFECT: opens the passage between the cell and its neighbor in the direction
+  void open(int cell, int direction) {
+    this.passages[cell] |= direction;
+    this.passages[this.neighbor(cell, direction)] |= opposite(direction);
+  }
+
+  // EFFECT: closes the passage between the cell and its neighbor in the direction
+  void close(int cell, int direction) {
+    this.passages[cell] &= ~direction;
+    this.passages[this.neighbor(cell, direction)] &= ~opposite(direction);
+  }
+
+  // Breadth first search over the whole grid from the start cell
+  // EFFECT: fills in dist with the number of steps to each cell
+  // Returns the cell farthest from start
+  int farthest(int start, int[] dist, int[] queue) {
+    Arrays.fill(dist, -1);
+    int head = 0;
+    int tail = 0;
+    int far = start;
+    dist[start] = 0;
+    queue[tail++] = start;
+    while (head < tail) {
+      int cell = queue[head++];
+      if (dist[cell] > dist[far]) {
+        far = cell;
+      }
+      for (int direction = RIGHT; direction <= UP; direction <<= 1) {
+        if ((this.passages[cell] & direction) != 0) {
+          int next = this.neighbor(cell, direction);
+          if (dist[next] < 0) {
+            dist[next] = dist[cell] + 1;
+            queue[tail++] = next;
+          }
+        }
+      }
+    }
+    return far;
+  }
+
+  // Breadth first search from start that stops once it reaches goal. dist
+  // must be all -1, and is left that way, clearing only the cells reached
+  // Returns the number of steps from start to goal
+  int distance(int start, int goal, int[] dist, int[] queue) {
+    int head = 0;
+    int tail = 0;
+    dist[start] = 0;
+    queue[tail++] = start;
+    while (head < tail) {
+      int cell = queue[head++];
+      if (cell == goal) {
+        break;
+      }
+      for (int direction = RIGHT; direction <= UP; direction <<= 1) {
+        if ((this.passages[cell] & direction) != 0) {
+          int next = this.neighbor(cell, direction);
+          if (dist[next] < 0) {
+            dist[next] = dist[cell] + 1;
+            queue[tail++] = next;
+          }
+        }
+      }
+    }
+    int result = dist[goal];
+    for (int i = 0; i < tail; i++) {
+      dist[queue[i]] = -1;
+    }
+    return result;
+  }
+
+  // Breadth first search from start that stops once it reaches goal
+  // EFFECT: fills in prev with the cell each reached cell was reached from
+  // Returns the number of cells expanded
+  int search(int start, int goal, int[] prev, int[] queue) {
+    Arrays.fill(prev, -1);
+    int head = 0;
+    int tail = 0;
+    prev[start] = start;
+    queue[tail++] = start;
+    while (head < tail) {
+      int cell = queue[head++];
+      if (cell == goal) {
+        break;
+      }
+      for (int direction = RIGHT; direction <= UP; direction <<= 1) {
+        if ((this.passages[cell] & direction) != 0) {
+          int next = this.neighbor(cell, direction);
+          if (prev[next] < 0) {
+            prev[next] = cell;
+            queue[tail++] = next;
+          }
+        }
+      }
+    }
+    return head;
+  }
+
+  // The number of passages leading out of the cell
+  int degree(int cell) {
+    return Integer.bitCount(this.passages[cell]);
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public boolean openRight(int x, int y) {
+    return (this.passages[this.layout.index(x, y)] & RIGHT) != 0;
+  }
+
+  public boolean openDown(int x, int y) {
+    return (this.passages[this.layout.index(x, y)] & DOWN) != 0;
+  }
+
+  public Color colorAt(int x, int y) {
+    if (x == 0 && y == 0) {
+      return Color.green;
+    }
+    else if (x == this.width - 1 && y == this.height - 1) {
+      return Color.red;
+    }
+    else {
+      return Color.lightGray;
+    }
+  }
+}
+
+// Measures of how hard a maze is, all found in linear time
+class MazeStats {
+  // Boards at least this big count their cells in parallel
+  static final int PARALLEL_CELLS = 1 << 16;
+
+  MazeGrid grid;
+  int solutionLength;
+  int diameter;
+  int diameterStart;
+  int diameterEnd;
+  int deadEnds;
+  int junctions;
+  int corridors;
+  // corridorLengths[i] is the number of corridors that are i steps long
+  int[] corridorLengths;
+
+  MazeStats(MazeGrid grid) {
+    this.grid = grid;
+    this.measureDistances();
+    this.measureCells();
+  }
+
+  MazeStats(MazeWorld world) {
+    this(world.grid);
+  }
+
+  // Finds the solution length and the diameter with two breadth first passes;
+  // the first starts at the entrance so it also gives the solution length
+  // EFFECT: sets solutionLength, diameter, diameterStart and diameterEnd
+  void measureDistances() {
+    int[] dist = new int[this.grid.size()];
+    int[] queue = new int[this.grid.size()];
+    this.diameterStart = this.grid.farthest(this.grid.first(), dist, queue);
+    this.solutionLength = dist[this.grid.last()];
+    this.diameterEnd = this.grid.farthest(this.diameterStart, dist, queue);
+    this.diameter = dist[this.diameterEnd];
+  }
+
+  // Counts dead ends, junctions and corridors, splitting the board into bands
+  // of cells that are counted in parallel on big boards
+  // EFFECT: sets deadEnds, junctions, corridors and corridorLengths
+  void measureCells() {
+    int size = this.grid.size();
+    int bands = size < PARALLEL_CELLS ? 1 : Runtime.getRuntime().availableProcessors() * 4;
+    IntStream range = IntStream.range(0, bands);
+    if (bands > 1) {
+      range = range.parallel();
+    }
+    CellCounts counts = range
+        .mapToObj(band -> this.countCells((int) ((long) size * band / bands),
+            (int) ((long) size * (band + 1) / bands)))
+        .reduce(new CellCounts(), CellCounts::merge);
+    this.deadEnds = counts.deadEnds;
+    this.junctions = counts.junctions;
+    this.corridors = counts.corridors;
+    this.corridorLengths = Arrays.copyOf(counts.lengths, counts.longest + 1);
+  }
+
+  // Counts the cells with indexes from (inclusive) to (exclusive). A corridor
+  // is a run of steps through cells with two passages, and is counted at
+  // whichever of its two ends has the lower index
+  CellCounts countCells(int from, int to) {
+    CellCounts counts = new CellCounts();
+    byte[] passages = this.grid.passages;
+    for (int cell = from; cell < to; cell++) {
+      int degree = this.grid.degree(cell);
+      if (degree == 2) {
+        continue;
+      }
+      if (degree == 1) {
+        counts.deadEnds++;
+      }
+      else if (degree > 2) {
+        counts.junctions++;
+      }
+      for (int direction = MazeGrid.RIGHT; direction <= MazeGrid.UP; direction <<= 1) {
+        if ((passages[cell] & direction) != 0) {
+          int length = 1;
+          int back = MazeGrid.opposite(direction);
+          int at = this.grid.neighbor(cell, direction);
+          while (this.grid.degree(at) == 2) {
+            int out = passages[at] & ~back;
+            at = this.grid.neighbor(at, out);
+            back = MazeGrid.opposite(out);
+            length++;
+          }
+          if (cell < at) {
+            counts.add(length);
+          }
+        }
+      }
+    }
+    return counts;
+  }
+}
+
+// Running totals of the cell counts for one band of a maze
+class CellCounts {
+  int deadEnds;
+  int junctions;
+  int corridors;
+  int longest;
+  int[] lengths;
+
+  CellCounts() {
+    this.lengths = new int[16];
+  }
+
+  // EFFECT: counts one more corridor of the given length
+  void add(int length) {
+    if (length >= this.lengths.length) {
+      this.lengths = Arrays.copyOf(this.lengths, Math.max(length + 1, this.lengths.length * 2));
+    }
+    this.lengths[length]++;
+    this.longest = Math.max(this.longest, length);
+    this.corridors++;
+  }
+
+  // Combines the counts of two bands into a new one
+  CellCounts merge(CellCounts other) {
+    CellCounts result = new CellCounts();
+    result.deadEnds = this.deadEnds + other.deadEnds;
+    result.junctions = this.junctions + other.junctions;
+    result.corridors = this.corridors + other.corridors;
+    result.longest = Math.max(this.longest, other.longest);
+    result.lengths = new int[Math.max(this.lengths.length, other.lengths.length)];
+    for (int i = 0; i < this.lengths.length; i++) {
+      result.lengths[i] += this.lengths[i];
+    }
+    for (int i = 0; i < other.lengths.length; i++) {
+      result.lengths[i] += other.lengths[i];
+    }
+    return result;
+  }
+}
+
+// Answers distance and path queries between any two cells of a maze. Since
+// the maze is a tree, the path between two cells goes through their lowest
+// common ancestor, which is the shallowest cell visited between them on an
+// Euler tour. The tour is split into blocks with a sparse table over the
+// minimum of each block, so a query scans at most two blocks plus two lookups
+class LcaIndex {
+  static final int BLOCK = 32;
+
+  MazeGrid grid;
+  int[] parent;
+  int[] depth;
+  // The cells in the order a depth first walk from the first cell passes through them
+  int[] euler;
+  // The first position of each cell in the tour
+  int[] first;
+  // table[k][b] is the position of the shallowest cell in blocks b to b + 2^k - 1
+  int[][] table;
+
+  LcaIndex(MazeGrid grid) {
+    this.grid = grid;
+    this.tour();
+    this.buildTable();
+  }
+
+  LcaIndex(MazeWorld world) {
+    this(world.grid);
+  }
+
+  // Walks the tree depth first from the first cell without recursion
+  // EFFECT: fills in parent, depth, euler and first
+  void tour() {
+    int size = this.grid.size();
+    byte[] passages = this.grid.passages;
+    this.parent = new int[size];
+    this.depth = new int[size];
+    this.euler = new int[2 * this.grid.cells() - 1];
+    this.first = new int[size];
+    // The next direction to try from each cell on the stack
+    byte[] cursor = new byte[size];
+    int[] stack = new int[this.grid.cells()];
+    int top = 0;
+    int length = 0;
+
+    int root = this.grid.first();
+    this.parent[root] = -1;
+    this.euler[length++] = root;
+    cursor[root] = MazeGrid.RIGHT;
+    stack[top++] = root;
+    while (top > 0) {
+      int cell = stack[top - 1];
+      int direction = cursor[cell];
+      while (direction <= MazeGrid.UP && ((passages[cell] & direction) == 0
+          || this.grid.neighbor(cell, direction) == this.parent[cell])) {
+        direction <<= 1;
+      }
+      if (direction <= MazeGrid.UP) {
+        cursor[cell] = (byte) (direction << 1);
+        int child = this.grid.neighbor(cell, direction);
+        this.parent[child] = cell;
+        this.depth[child] = this.depth[cell] + 1;
+        this.first[child] = length;
+        this.euler[length++] = child;
+        cursor[child] = MazeGrid.RIGHT;
+        stack[top++] = child;
+      }
+      else {
+        top--;
+        if (top > 0) {
+          this.euler[length++] = stack[top - 1];
+        }
+      }
+    }
+  }
+
+  // EFFECT: builds the sparse table over the minimum of each block of the tour
+  void buildTable() {
+    int blocks = (this.euler.length + BLOCK - 1) / BLOCK;
+    int levels = 32 - Integer.numberOfLeadingZeros(blocks);
+    this.table = new int[levels][];
+    this.table[0] = new int[blocks];
+    for (int b = 0; b < blocks; b++) {
+      this.table[0][b] = this.scan(b * BLOCK, Math.min(this.euler.length, (b + 1) * BLOCK));
+    }
+    for (int k = 1; k < levels; k++) {
+      int span = 1 << (k - 1);
+      int[] below = this.table[k - 1];
+      int[] level = new int[blocks - (1 << k) + 1];
+      for (int b = 0; b < level.length; b++) {
+        level[b] = this.shallower(below[b], below[b + span]);
+      }
+      this.table[k] = level;
+    }
+  }
+
+  // Which of two tour positions holds the shallower cell
+  int shallower(int i, int j) {
+    return this.depth[this.euler[i]] <= this.depth[this.euler[j]] ? i : j;
+  }
+
+  // The position of the shallowest cell in the tour from (inclusive) to (exclusive)
+  int scan(int from, int to) {
+    int best = from;
+    for (int i = from + 1; i < to; i++) {
+      best = this.shallower(best, i);
+    }
+    return best;
+  }
+
+  // The lowest common ancestor of two cells
+  int lca(int a, int b) {
+    int from = Math.min(this.first[a], this.first[b]);
+    int to = Math.max(this.first[a], this.first[b]);
+    int fromBlock = from / BLOCK;
+    int toBlock = to / BLOCK;
+    if (toBlock - fromBlock < 2) {
+      return this.euler[this.scan(from, to + 1)];
+    }
+    int best = this.shallower(this.scan(from, (fromBlock + 1) * BLOCK),
+        this.scan(toBlock * BLOCK, to + 1));
+    int k = 31 - Integer.numberOfLeadingZeros(toBlock - fromBlock - 1);
+    best = this.shallower(best, this.table[k][fromBlock + 1]);
+    best = this.shallower(best, this.table[k][toBlock - (1 << k)]);
+    return this.euler[best];
+  }
+
+  // The number of steps on the path between two cells
+  int distance(int a, int b) {
+    return this.depth[a] + this.depth[b] - 2 * this.depth[this.lca(a, b)];
+  }
+
+  // The cells on the path from a to b, including both ends
+  int[] path(int a, int b) {
+    int meet = this.lca(a, b);
+    int[] result = new int[this.depth[a] + this.depth[b] - 2 * this.depth[meet] + 1];
+    int i = 0;
+    for (int at = a; at != meet; at = this.parent[at]) {
+      result[i++] = at;
+    }
+    result[i] = meet;
+    int j = result.length - 1;
+    for (int at = b; at != meet; at = this.parent[at]) {
+      result[j--] = at;
+    }
+    return result;
+  }
+}
+
+// A maze with each corridor of cells that have two passages collapsed into a
+// single weighted edge, so a search only stops at junctions and at the
+// entrance and exit. Dead ends are left out, along with the corridors into
+// them, since no solution can pass through one
+class JunctionGraph {
+  MazeGrid grid;
+  int start;
+  int goal;
+  // The cell of each node, in increasing order
+  int[] nodeCell;
+  // The edges of node i are edgeStart[i] up to edgeStart[i + 1]
+  int[] edgeStart;
+  int[] edgeTarget;
+  int[] edgeWeight;
+  // The direction each edge leaves its node in, to walk it back out into cells
+  byte[] edgeDirection;
+  // The number of nodes the last solve expanded
+  int expansions;
+
+  JunctionGraph(MazeGrid grid) {
+    this.grid = grid;
+    this.start = grid.first();
+    this.goal = grid.last();
+    this.findNodes();
+    this.findEdges();
+  }
+
+  // Is the cell kept as a node of the graph? Dead ends and padding are not
+  boolean isNode(int cell) {
+    return cell == this.start || cell == this.goal || this.grid.degree(cell) > 2;
+  }
+
+  // The node for a cell, or a negative number if the cell is not a node
+  int nodeOf(int cell) {
+    return Arrays.binarySearch(this.nodeCell, cell);
+  }
+
+  // EFFECT: fills in nodeCell
+  void findNodes() {
+    int count = 0;
+    for (int cell = 0; cell < this.grid.size(); cell++) {
+      if (this.isNode(cell)) {
+        count++;
+      }
+    }
+    this.nodeCell = new int[count];
+    int node = 0;
+    for (int cell = 0; cell < this.grid.size(); cell++) {
+      if (this.isNode(cell)) {
+        this.nodeCell[node++] = cell;
+      }
+    }
+  }
+
+  // Walks every corridor out of every node, keeping those that end at another
+  // node and dropping those that end at a dead end
+  // EFFECT: fills in edgeStart, edgeTarget, edgeWeight and edgeDirection
+  void findEdges() {
+    int most = 0;
+    for (int cell : this.nodeCell) {
+      most += this.grid.degree(cell);
+    }
+    this.edgeStart = new int[this.nodeCell.length + 1];
+    this.edgeTarget = new int[most];
+    this.edgeWeight = new int[most];
+    this.edgeDirection = new byte[most];
+    int edge = 0;
+    for (int node = 0; node < this.nodeCell.length; node++) {
+      int cell = this.nodeCell[node];
+      for (int direction = MazeGrid.RIGHT; direction <= MazeGrid.UP; direction <<= 1) {
+        if ((this.grid.passages[cell] & direction) != 0) {
+          int weight = 1;
+          int back = MazeGrid.opposite(direction);
+          int at = this.grid.neighbor(cell, direction);
+          while (!this.isNode(at) && this.grid.degree(at) == 2) {
+            int out = this.grid.passages[at] & ~back;
+            at = this.grid.neighbor(at, out);
+            back = MazeGrid.opposite(out);
+            weight++;
+          }
+          if (this.isNode(at)) {
+            this.edgeTarget[edge] = this.nodeOf(at);
+            this.edgeWeight[edge] = weight;
+            this.edgeDirection[edge] = (byte) direction;
+            edge++;
+          }
+        }
+      }
+      this.edgeStart[node + 1] = edge;
+    }
+    this.edgeTarget = Arrays.copyOf(this.edgeTarget, edge);
+    this.edgeWeight = Arrays.copyOf(this.edgeWeight, edge);
+    this.edgeDirection = Arrays.copyOf(this.edgeDirection, edge);
+  }
+
+  // The number of bytes held by the graph's arrays, and by the grid it keeps
+  // to walk edges back out into cells
+  long bytes() {
+    return 4L * (this.nodeCell.length + this.edgeStart.length + this.edgeTarget.length
+        + this.edgeWeight.length) + this.edgeDirection.length + this.grid.passages.length;
+  }
+
+  // The number of bytes a solve needs on top of the graph
+  long searchBytes() {
+    return 12L * this.nodeCell.length;
+  }
+
+  // Finds the path from the entrance to the exit with a depth first search
+  // over the junctions, then walks the edges on it back out into cells. The
+  // maze is a tree, so the first path found is the only one, and every edge
+  // but the one back leads to a node not yet seen
+  // EFFECT: sets expansions to the number of nodes taken off the stack
+  // Returns the cells on the path, from the entrance to the exit
+  int[] solve() {
+    int nodes = this.nodeCell.length;
+    int[] prevEdge = new int[nodes];
+    int[] prevNode = new int[nodes];
+    int[] stack = new int[nodes];
+    int from = this.nodeOf(this.start);
+    int to = this.nodeOf(this.goal);
+    int top = 0;
+    prevNode[from] = -1;
+    stack[top++] = from;
+    this.expansions = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      this.expansions++;
+      if (node == to) {
+        break;
+      }
+      for (int edge = this.edgeStart[node]; edge < this.edgeStart[node + 1]; edge++) {
+        int next = this.edgeTarget[edge];
+        if (next != prevNode[node]) {
+          prevNode[next] = node;
+          prevEdge[next] = edge;
+          stack[top++] = next;
+        }
+      }
+    }
+
+    int length = 0;
+    for (int node = to; prevNode[node] >= 0; node = prevNode[node]) {
+      length += this.edgeWeight[prevEdge[node]];
+    }
+    int[] cells = new int[length + 1];
+    int end = length;
+    for (int node = to; prevNode[node] >= 0; node = prevNode[node]) {
+      int edge = prevEdge[node];
+      end -= this.edgeWeight[edge];
+      this.expandEdge(this.nodeCell[prevNode[node]], this.edgeDirection[edge], cells, end);
+    }
+    cells[0] = this.start;
+    return cells;
+  }
+
+  // EFFECT: writes the cells along the edge leaving cell in the direction into
+  // cells, after position at, ending with the node at the far end
+  void expandEdge(int cell, int direction, int[] cells, int at) {
+    int back = MazeGrid.opposite(direction);
+    cell = this.grid.neighbor(cell, direction);
+    cells[++at] = cell;
+    while (!this.isNode(cell)) {
+      int out = this.grid.passages[cell] & ~back;
+      cell = this.grid.neighbor(cell, out);
+      back = MazeGrid.opposite(out);
+      cells[++at] = cell;
+    }
+  }
+}
+
+// A maze kept outside the Java heap, one byte per cell indexed by a long, so
+// it can hold more than 2^31 cells without adding to garbage collection.
+// The bytes live in direct buffers, or in a memory mapped file, of 2^30
+// bytes each. Direct buffers count against -XX:MaxDirectMemorySize, which
+// defaults to -Xmx, so a maze bigger than that is mapped from a file. Each
+// cell holds its right and down passages, whether the search has visited
+// it, the direction back to the cell it was reached from, and whether it is
+// on the solution
+class OffHeapMaze implements IMazeView {
+  static final int CHUNK_BITS = 30;
+  static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+  static final int RIGHT = 1;
+  static final int DOWN = 2;
+  static final int VISITED = 4;
+  static final int PARENT_SHIFT = 3;
+  static final int PARENT_MASK = 3 << PARENT_SHIFT;
+  static final int ON_PATH = 32;
+
+  // Directions by number, as used for the parent links
+  static final int EAST = 0;
+  static final int SOUTH = 1;
+  static final int WEST = 2;
+  static final int NORTH = 3;
+
+  int width;
+  int height;
+  ByteBuffer[] chunks;
+  // Are the chunks mapped from a file, rather than direct buffers?
+  boolean inFile;
+
+  OffHeapMaze(int width, int height, ByteBuffer[] chunks, boolean inFile) {
+    this.width = width;
+    this.height = height;
+    this.chunks = chunks;
+    this.inFile = inFile;
+  }
+
+  // Creates a maze in memory, with every wall in place
+  static OffHeapMaze allocate(int width, int height) throws IOException {
+    return allocate(width, height, directBytesLeft());
+  }
+
+  // Creates a maze in direct buffers if it fits in the given bytes, or else
+  // in a temporary file mapped into memory, with every wall in place.
+  // Reserving direct buffers past the limit fails only after System.gc(),
+  // so the size is checked first
+  static OffHeapMaze allocate(int width, int height, long directBytes) throws IOException {
+    long size = (long) width * height;
+    if (size > directBytes) {
+      File file = File.createTempFile("maze", ".bin");
+      try {
+        return mapped(file.getPath(), width, height);
+      }
+      finally {
+        // Where a mapped file cannot be deleted, it goes when the JVM exits
+        if (!file.delete()) {
+          file.deleteOnExit();
+        }
+      }
+    }
+    ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = ByteBuffer.allocateDirect((int) Math.min(CHUNK_MASK + 1,
+          size - ((long) i << CHUNK_BITS)));
+    }
+    return new OffHeapMaze(width, height, chunks, false);
+  }
+
+  // The bytes of direct buffers this JVM can still reserve
+  static long directBytesLeft() {
+    long limit = Long.parseLong(ManagementFactory.getPlatformMXBean(
+        HotSpotDiagnosticMXBean.class).getVMOption("MaxDirectMemorySize").getValue());
+    if (limit <= 0) {
+      limit = Runtime.getRuntime().maxMemory();
+    }
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        limit -= pool.getTotalCapacity();
+      }
+    }
+    return limit;
+  }
+
+  // Creates a maze backed by the given file, which is resized to fit
+  static OffHeapMaze mapped(String fileName, int width, int height) throws IOException {
+    long size = (long) width * height;
+    ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+    RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+    try {
+      file.setLength(size);
+      for (int i = 0; i < chunks.length; i++) {
+        long start = (long) i << CHUNK_BITS;
+        chunks[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start,
+            Math.min(CHUNK_MASK + 1, size - start));
+      }
+    }
+    finally {
+      // The mappings stay valid after the file is closed
+      file.close();
+    }
+    return new OffHeapMaze(width, height, chunks, true);
+  }
+
+  // The number of cells in the maze
+  long size() {
+    return (long) this.width * this.height;
+  }
+
+  // The byte for the cell
+  int get(long cell) {
+    return this.chunks[(int) (cell >>> CHUNK_BITS)].get((int) (cell & CHUNK_MASK));
+  }
+
+  // EFFECT: sets the byte for the cell
+  void set(long cell, int value) {
+    this.chunks[(int) (cell >>> CHUNK_BITS)].put((int) (cell & CHUNK_MASK), (byte) value);
+  }
+
+  // EFFECT: writes the pending changes of a mapped maze to its file
+  void force() {
+    if (this.inFile) {
+      for (ByteBuffer chunk : this.chunks) {
+        ((MappedByteBuffer) chunk).force();
+      }
+    }
+  }
+
+  // EFFECT: closes every passage and clears the search
+  void clear() {
+    byte[] zeros = new byte[1 << 16];
+    for (ByteBuffer chunk : this.chunks) {
+      for (int at = 0; at < chunk.capacity(); at += zeros.length) {
+        chunk.put(at, zeros, 0, Math.min(zeros.length, chunk.capacity() - at));
+      }
+    }
+  }
+
+  // Is there a passage from the cell in the numbered direction?
+  boolean isOpen(long cell, int direction) {
+    if (direction == EAST) {
+      return (this.get(cell) & RIGHT) != 0;
+    }
+    else if (direction == SOUTH) {
+      return (this.get(cell) & DOWN) != 0;
+    }
+    else if (direction == WEST) {
+      return cell % this.width != 0 && (this.get(cell - 1) & RIGHT) != 0;
+    }
+    else {
+      return cell >= this.width && (this.get(cell - this.width) & DOWN) != 0;
+    }
+  }
+
+  // The cell on the other side of the numbered direction
+  long neighbor(long cell, int direction) {
+    if (direction == EAST) {
+      return cell + 1;
+    }
+    else if (direction == SOUTH) {
+      return cell + this.width;
+    }
+    else if (direction == WEST) {
+      return cell - 1;
+    }
+    else {
+      return cell - this.width;
+    }
+  }
+
+  // Creates a random maze with Eller's algorithm, which joins sets of cells
+  // like Kruskal's but one row at a time, so it only needs a few arrays the
+  // width of the maze on the heap
+  // EFFECT: replaces the passages and clears the search
+  void generate(Random rand) {
+    this.clear();
+    int[] label = new int[this.width];
+    int[] parent = new int[this.width];
+    int[] count = new int[this.width];
+    int[] relabel = new int[this.width];
+    boolean[] down = new boolean[this.width];
+    for (int x = 0; x < this.width; x++) {
+      label[x] = x;
+    }
+
+    for (int y = 0; y < this.height; y++) {
+      long row = (long) y * this.width;
+      boolean lastRow = y == this.height - 1;
+      for (int i = 0; i < this.width; i++) {
+        parent[i] = i;
+      }
+      // Join neighbors in different sets, always on the last row
+      for (int x = 0; x < this.width - 1; x++) {
+        int root1 = MazeGrid.findRoot(parent, label[x]);
+        int root2 = MazeGrid.findRoot(parent, label[x + 1]);
+        if (root1 != root2 && (lastRow || rand.nextBoolean())) {
+          parent[root2] = root1;
+          this.set(row + x, this.get(row + x) | RIGHT);
+        }
+      }
+      if (lastRow) {
+        break;
+      }
+
+      // Carve down from each set at least once, then give the next row's
+      // cells compact labels: their set's if joined from above, or new ones
+      Arrays.fill(count, 0);
+      Arrays.fill(down, false);
+      Arrays.fill(relabel, -1);
+      for (int x = 0; x < this.width; x++) {
+        label[x] = MazeGrid.findRoot(parent, label[x]);
+        count[label[x]]++;
+      }
+      int next = 0;
+      for (int x = 0; x < this.width; x++) {
+        int root = label[x];
+        count[root]--;
+        if (rand.nextBoolean() || (count[root] == 0 && !down[root])) {
+          down[root] = true;
+          this.set(row + x, this.get(row + x) | DOWN);
+          if (relabel[root] < 0) {
+            relabel[root] = next++;
+          }
+          label[x] = relabel[root];
+        }
+        else {
+          label[x] = -1;
+        }
+      }
+      for (int x = 0; x < this.width; x++) {
+        if (label[x] < 0) {
+          label[x] = next++;
+        }
+      }
+    }
+  }
+
+  // Searches depth first from the first cell to the last without any stack:
+  // each visited cell records the direction back to the cell it came from,
+  // which is followed whenever the search runs out of new cells
+  // EFFECT: sets the visited, parent and solution bits of the cells
+  // Returns the number of steps on the solution
+  long solve() {
+    for (long cell = 0; cell < this.size(); cell++) {
+      this.set(cell, this.get(cell) & (RIGHT | DOWN));
+    }
+    long goal = this.size() - 1;
+    long cell = 0;
+    this.set(cell, this.get(cell) | VISITED);
+    while (cell != goal) {
+      int direction = EAST;
+      while (direction <= NORTH && !(this.isOpen(cell, direction)
+          && (this.get(this.neighbor(cell, direction)) & VISITED) == 0)) {
+        direction++;
+      }
+      if (direction <= NORTH) {
+        long next = this.neighbor(cell, direction);
+        this.set(next, this.get(next) | VISITED | (((direction + 2) % 4) << PARENT_SHIFT));
+        cell = next;
+      }
+      else {
+        cell = this.neighbor(cell, (this.get(cell) & PARENT_MASK) >> PARENT_SHIFT);
+      }
+    }
+
+    long steps = 0;
+    this.set(cell, this.get(cell) | ON_PATH);
+    while (cell != 0) {
+      cell = this.neighbor(cell, (this.get(cell) & PARENT_MASK) >> PARENT_SHIFT);
+      this.set(cell, this.get(cell) | ON_PATH);
+      steps++;
+    }
+    return steps;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public boolean openRight(int x, int y) {
+    return (this.get(x + (long) y * this.width) & RIGHT) != 0;
+  }
+
+  public boolean openDown(int x, int y) {
+    return (this.get(x + (long) y * this.width) & DOWN) != 0;
+  }
+
+  public Color colorAt(int x, int y) {
+    int value = this.get(x + (long) y * this.width);
+    if (x == 0 && y == 0) {
+      return Color.green;
+    }
+    else if (x == this.width - 1 && y == this.height - 1) {
+      return Color.red;
+    }
+    else if ((value & ON_PATH) != 0) {
+      return Color.orange;
+    }
+    else if ((value & VISITED) != 0) {
+      return Color.magenta;
+    }
+    else {
+      return Color.lightGray;
+    }
+  }
+}
+
+// Runs a breadth or depth first search on its own thread, so the search
+// and the drawing of it do not slow each other down. The search works on
+// its own copy of the cell states and publishes snapshots through three
+// buffers: one it writes, one the renderer reads, and one in the middle
+// that either side swaps with, so neither ever waits on the other
+class SearchWorker implements Runnable {
+  static final byte UNSEEN = 0;
+  static final byte SEARCHED = 1;
+  static final byte SOLUTION = 2;
+  // Marks the middle buffer as published since the renderer last took it
+  static final int FRESH = 4;
+  // How often to check the clock, in steps
+  static final int CHECK_STEPS = 1024;
+
+  MazeGrid grid;
+  boolean breadth;
+  // The time each step should take, or 0 to run flat out
+  long stepNanos;
+  long publishNanos;
+
+  // The search itself, owned by the worker thread
+  byte[] live;
+  int[] prev;
+  int[] work;
+  int head;
+  int tail;
+  boolean finished;
+
+  byte[][] buffers;
+  long[] bufferSteps;
+  boolean[] bufferDone;
+  int back;
+  int front;
+  AtomicInteger middle;
+
+  volatile boolean stopped;
+  volatile long steps;
+  long startNanos;
+  volatile long endNanos;
+  Thread thread;
+
+  SearchWorker(MazeGrid grid, boolean breadth, long stepNanos, long publishNanos) {
+    this.grid = grid;
+    this.breadth = breadth;
+    this.stepNanos = stepNanos;
+    this.publishNanos = publishNanos;
+    this.live = new byte[grid.size()];
+    this.prev = new int[grid.size()];
+    this.work = new int[grid.size()];
+    this.prev[grid.first()] = -1;
+    this.work[this.tail++] = grid.first();
+    this.buffers = new byte[3][grid.size()];
+    this.bufferSteps = new long[3];
+    this.bufferDone = new boolean[3];
+    this.back = 0;
+    this.front = 1;
+    this.middle = new AtomicInteger(2);
+  }
+
+  // EFFECT: starts the search on a new daemon thread
+  void start() {
+    this.startNanos = System.nanoTime();
+    this.thread = new Thread(this, "maze-search");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  // EFFECT: asks the search to stop and waits for its thread to end
+  void stop() {
+    this.stopped = true;
+    if (this.thread != null) {
+      try {
+        this.thread.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Searches until the exit is found or the worker is stopped, keeping to
+  // stepNanos per step and publishing at most once every publishNanos
+  public void run() {
+    long lastPublish = System.nanoTime();
+    while (!this.stopped && !this.finished) {
+      this.step();
+      if (this.steps % CHECK_STEPS == 0 || this.stepNanos > 0) {
+        long now = System.nanoTime();
+        if (now - lastPublish >= this.publishNanos) {
+          this.publish();
+          lastPublish = now;
+        }
+        long ahead = this.startNanos + this.steps * this.stepNanos - now;
+        if (ahead > 0) {
+          LockSupport.parkNanos(ahead);
+        }
+      }
+    }
+    this.endNanos = System.nanoTime();
+    this.publish();
+  }
+
+  // Expands one cell, like searchHelp
+  // EFFECT: marks the cell searched and adds the cells past it to the work,
+  // or marks the solution once the exit is reached
+  void step() {
+    if (this.finished || this.head == this.tail) {
+      return;
+    }
+    int cell = this.breadth ? this.work[this.head++] : this.work[--this.tail];
+    this.live[cell] = SEARCHED;
+    this.steps++;
+    if (cell == this.grid.last()) {
+      for (int at = cell; at >= 0; at = this.prev[at]) {
+        this.live[at] = SOLUTION;
+      }
+      this.finished = true;
+      return;
+    }
+    for (int direction = MazeGrid.RIGHT; direction <= MazeGrid.UP; direction <<= 1) {
+      if ((this.grid.passages[cell] & direction) != 0) {
+        int next = this.grid.neighbor(cell, direction);
+        if (next != this.prev[cell]) {
+          this.prev[next] = cell;
+          this.work[this.tail++] = next;
+        }
+      }
+    }
+  }
+
+  // EFFECT: copies the live state into the back buffer and swaps it into the
+  // middle for the renderer to take
+  void publish() {
+    System.arraycopy(this.live, 0, this.buffers[this.back], 0, this.live.length);
+    this.bufferSteps[this.back] = this.steps;
+    this.bufferDone[this.back] = this.finished;
+    this.back = this.middle.getAndSet(this.back | FRESH) & 3;
+  }
+
+  // Takes the newest published snapshot, if there is one, without waiting
+  // EFFECT: swaps the front buffer with the middle one if it is fresh
+  // Returns the cell states of the front buffer
+  byte[] snapshot() {
+    if ((this.middle.get() & FRESH) != 0) {
+      // Only the worker changes the middle, and always to a fresh buffer
+      this.front = this.middle.getAndSet(this.front) & 3;
+    }
+    return this.buffers[this.front];
+  }
+
+  // The number of steps taken when the current snapshot was published
+  long snapshotSteps() {
+    return this.bufferSteps[this.front];
+  }
+
+  // Had the search finished when the current snapshot was published?
+  boolean snapshotDone() {
+    return this.bufferDone[this.front];
+  }
+
+  // The average number of steps per second so far
+  double stepsPerSecond() {
+    long end = this.endNanos > 0 ? this.endNanos : System.nanoTime();
+    return this.steps * 1e9 / Math.max(1, end - this.startNanos);
+  }
+}
+
+// A view of a maze with the colors of a snapshot from a SearchWorker
+class SnapshotView implements IMazeView {
+  MazeGrid grid;
+  byte[] states;
+  Color choice;
+
+  SnapshotView(MazeGrid grid, byte[] states, Color choice) {
+    this.grid = grid;
+    this.states = states;
+    this.choice = choice;
+  }
+
+  public int width() {
+    return this.grid.width();
+  }
+
+  public int height() {
+    return this.grid.height();
+  }
+
+  public boolean openRight(int x, int y) {
+    return this.grid.openRight(x, y);
+  }
+
+  public boolean openDown(int x, int y) {
+    return this.grid.openDown(x, y);
+  }
+
+  public Color colorAt(int x, int y) {
+    byte state = this.states[this.grid.layout.index(x, y)];
+    if (state == SearchWorker.SOLUTION) {
+      return Color.orange;
+    }
+    else if (state == SearchWorker.SEARCHED) {
+      return this.choice;
+    }
+    else {
+      return this.grid.colorAt(x, y);
+    }
+  }
+}
+
+// A piece of maze work whose running time is measured at growing sizes
+interface IScalingPhase {
+  // Does the work on a board of the given size
+  // Returns the seconds that the part being measured took
+  double run(int width, int height);
+
+  // A linear phase over the same kind of structures, whose growth past n is
+  // put down to the machine rather than the phase
+  IScalingPhase reference();
+}
+
+// Times creating a MazeWorld, which runs initMaze
+class InitMazePhase implements IScalingPhase {
+  public double run(int width, int height) {
+    long start = System.nanoTime();
+    new MazeWorld(width, height, 1);
+    return MazeBenchmarks.since(start);
+  }
+
+  // Kruskal's algorithm reaches the walls, and the Paths on either side, in
+  // the random order of their weights
+  public IScalingPhase reference() {
+    return new WallWalkPhase();
+  }
+}
+
+// Times one pass over a MazeWorld's walls in the order Kruskal's algorithm
+// takes them, which reaches the Paths as scattered in memory as initMaze does
+class WallWalkPhase implements IScalingPhase {
+  public double run(int width, int height) {
+    MazeWorld world = new MazeWorld(width, height, 1);
+    ArrayList<Walls> walls = new ArrayList<Walls>(world.board);
+    walls.addAll(world.wallBoard);
+    walls.sort(new WallSort());
+    int[] seen = new int[world.layout.size()];
+    long start = System.nanoTime();
+    for (Walls wall : walls) {
+      seen[world.layout.index(wall.fromPath.x, wall.fromPath.y)]++;
+      seen[world.layout.index(wall.toPath.x, wall.toPath.y)]++;
+    }
+    return MazeBenchmarks.since(start);
+  }
+
+  public IScalingPhase reference() {
+    return this;
+  }
+}
+
+// Times a breadth or depth first search of a MazeWorld through searchHelp
+class SearchPhase implements IScalingPhase {
+  String key;
+
+  SearchPhase(String key) {
+    this.key = key;
+  }
+
+  public double run(int width, int height) {
+    MazeWorld world = new MazeWorld(width, height, 1);
+    long start = System.nanoTime();
+    world.onKeyEvent(this.key);
+    while (world.search) {
+      world.searchHelp(world.worklist);
+    }
+    return MazeBenchmarks.since(start);
+  }
+
+  // Searches reach the cells next to each other, as a breadth first search does
+  public IScalingPhase reference() {
+    return new GridPhase("bfs");
+  }
+}
+
+// Times walking a MazeWorld's solution in manual mode through move
+class ManualPhase implements IScalingPhase {
+  public double run(int width, int height) {
+    MazeWorld world = new MazeWorld(width, height, 1);
+    int[] cells = new JunctionGraph(world.grid).solve();
+    String[] keys = new String[cells.length - 1];
+    for (int i = 1; i < cells.length; i++) {
+      int step = cells[i] - cells[i - 1];
+      keys[i - 1] = step == 1 ? "right" : step == -1 ? "left" : step > 0 ? "down" : "up";
+    }
+    long start = System.nanoTime();
+    for (String key : keys) {
+      world.move(key);
+    }
+    return MazeBenchmarks.since(start);
+  }
+
+  // Moving reaches the cells next to each other, as a breadth first search does
+  public IScalingPhase reference() {
+    return new GridPhase("bfs");
+  }
+}
+
+// Times building the primitive structures for a maze over a MazeGrid
+class GridPhase implements IScalingPhase {
+  String name;
+
+  GridPhase(String name) {
+    this.name = name;
+  }
+
+  public double run(int width, int height) {
+    long start = System.nanoTime();
+    MazeGrid grid = MazeGrid.kruskal(width, height, new Random(1));
+    if (this.name.equals("kruskal")) {
+      return MazeBenchmarks.since(start);
+    }
+    start = System.nanoTime();
+    if (this.name.equals("stats")) {
+      new MazeStats(grid);
+    }
+    else if (this.name.equals("lca")) {
+      new LcaIndex(grid);
+    }
+    else if (this.name.equals("bfs")) {
+      int[] dist = new int[grid.size()];
+      int[] queue = new int[grid.size()];
+      start = System.nanoTime();
+      grid.farthest(grid.first(), dist, queue);
     }
-    else if (type.equals("down")) {
-      attemptNum = this.curPath.x + (1 + this.curPath.y) * this.xLength;
+    else {
+      new JunctionGraph(grid).solve();
     }
+    return MazeBenchmarks.since(start);
+  }
+
+  // These work over the same primitive arrays as a breadth first search
+  public IScalingPhase reference() {
+    return new GridPhase("bfs");
+  }
+}
 
-    if (attemptNum > 0 && attemptNum < this.pathBoard.size()) {
-      attempt = this.pathBoard.get(attemptNum);
+// Runs a phase at doubling numbers of cells and fits t = a * n^b to the
+// times, to catch work that grows faster than it should. The phase's linear
+// reference is timed at the same sizes in the same run, and whatever it grows
+// faster than n is taken off the phase's exponent, so cache misses on big
+// boards are not counted against the phase
+class ScalingHarness {
+  // How far the fitted exponent may go over the model's before failing. Over
+  // 2^10 to 2^15 cells, n log n fits 1.12, and n^1.5 or n log^2 n must fail
+  static final double TOLERANCE = 0.2;
+  // The most heap a MazeWorld may keep per cell after initMaze
+  static final double BYTES_PER_CELL = 128;
+  // Runs at every size before timing, so the JIT has compiled the phase
+  static final int WARMUPS = 3;
+  // Runs of each size, of which the fastest is kept
+  static final int REPEATS = 5;
+
+  IScalingPhase phase;
+  IScalingPhase reference;
+  int[] widths;
+  int[] heights;
+  double[] seconds;
+  double[] referenceSeconds;
+
+  // Doubles the cells from minCells up to maxCells, which should be powers of
+  // two, alternately doubling the width and the height
+  ScalingHarness(IScalingPhase phase, int minCells, int maxCells) {
+    this.phase = phase;
+    this.reference = phase.reference();
+    int count = Integer.numberOfTrailingZeros(maxCells) - Integer.numberOfTrailingZeros(minCells)
+        + 1;
+    this.widths = new int[count];
+    this.heights = new int[count];
+    this.seconds = new double[count];
+    this.referenceSeconds = new double[count];
+    int bits = Integer.numberOfTrailingZeros(minCells);
+    for (int i = 0; i < count; i++) {
+      this.widths[i] = 1 << ((bits + i + 1) / 2);
+      this.heights[i] = 1 << ((bits + i) / 2);
     }
+  }
 
-    if (edgeExists(attempt)) {
-      this.curPath.changeColor(Color.lightGray);
-      this.path.put(attempt, this.curPath);
-      this.curPath = attempt;
-      this.curPath.changeColor(Color.pink);
-      if (attempt.equals(this.last)) {
-        this.worklist = new Queue<Path>();
-        this.worklist.add(this.first);
-        this.choice = Color.lightGray;
-        while (!this.complete) {
-          this.searchHelp(this.worklist);
-        }
-        this.winScreen = true;
-        this.manual = false;
+  // EFFECT: times the phase and the reference at every size, after warming
+  // up the JIT
+  void measure() {
+    for (int w = 0; w < WARMUPS; w++) {
+      for (int i = 0; i < this.widths.length; i++) {
+        this.phase.run(this.widths[i], this.heights[i]);
+        this.reference.run(this.widths[i], this.heights[i]);
+      }
+    }
+    for (int i = 0; i < this.widths.length; i++) {
+      double best = Double.MAX_VALUE;
+      double referenceBest = Double.MAX_VALUE;
+      for (int r = 0; r < REPEATS; r++) {
+        best = Math.min(best, this.phase.run(this.widths[i], this.heights[i]));
+        referenceBest = Math.min(referenceBest,
+            this.reference.run(this.widths[i], this.heights[i]));
       }
+      this.seconds[i] = best;
+      this.referenceSeconds[i] = referenceBest;
     }
   }
 
-  // On tick, search the maze using breadth first or depth first search
-  public void onTick() {
-    if (this.search && !this.manual) {
-      searchHelp(this.worklist);
+  // The number of cells at the size
+  double cells(int i) {
+    return (double) this.widths[i] * this.heights[i];
+  }
+
+  // The least squares slope of log ys against log ns
+  double slope(double[] ys) {
+    int count = ys.length;
+    double meanX = 0;
+    double meanY = 0;
+    for (int i = 0; i < count; i++) {
+      meanX += Math.log(this.cells(i)) / count;
+      meanY += Math.log(ys[i]) / count;
     }
-    else if (this.complete) {
-      remake(this.last);
+    double top = 0;
+    double bottom = 0;
+    for (int i = 0; i < count; i++) {
+      double dx = Math.log(this.cells(i)) - meanX;
+      top += dx * (Math.log(ys[i]) - meanY);
+      bottom += dx * dx;
     }
+    return top / bottom;
   }
 
-  // Remakes the correct path to get to the end once the solution is found
-  void remake(Path before) {
-    Path onTrack = this.path.get(before);
-    if (onTrack != null) {
-      onTrack.changeColor(Color.orange);
-      remake(onTrack);
+  // The exponent b of t = a * n^b fitted to the given times
+  double fit(double[] seconds) {
+    // Sizes too fast to time at all are counted as a microsecond
+    double[] times = new double[seconds.length];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = Math.max(seconds[i], 1e-6);
     }
+    return this.slope(times);
   }
 
-  // The function to find the end path
-  // EFFECT: changes searched blocks into a certain color, depending on the search
-  // pattern. Also adds the path to ongoing list of paths gone through
-  void searchHelp(ICollection<Path> worklist) {
-    if (!worklist.isEmpty()) {
-      Path next = worklist.remove();
-      next.changeColor(this.choice);
+  // The exponent the phase grows with
+  double growth() {
+    return this.fit(this.seconds);
+  }
 
-      if (next.equals(this.last)) {
-        this.last.changeColor(Color.orange);
-        this.search = false;
-        this.complete = true;
-      }
-      else {
-        Iterator<Walls> wallsIterator = this.board.iterator();
-
-        while (wallsIterator.hasNext()) {
-          Walls w = wallsIterator.next();
-          if (w.fromPath.equals(next)) {
-            wallsIterator.remove();
-            this.worklist.add(w.toPath);
-            this.path.put(w.toPath, next);
-          }
-          else if (w.toPath.equals(next)) {
-            wallsIterator.remove();
-            this.worklist.add(w.fromPath);
-            this.path.put(w.fromPath, next);
-          }
-        }
-      }
-    }
+  // The exponent the phase grows with, less however much faster than linear
+  // its reference grows
+  double relativeGrowth() {
+    return this.growth() - Math.max(0, this.fit(this.referenceSeconds) - 1);
   }
 
-  // Makes a visual representation of the maze
-  public WorldScene makeScene() {
-    WorldScene holder = new WorldScene(this.xLength * 10, this.yLength * 10);
-    for (Path path : this.pathBoard) {
-      holder.placeImageXY(new RectangleImage(10, 10, OutlineMode.SOLID, path.curColor),
-          path.x * 10 + 5, path.y * 10 + 5);
-    }
-    for (Walls wall : this.wallBoard) {
-      Path fromPath = wall.fromPath;
-      Path toPath = wall.toPath;
-      if ((fromPath.x - toPath.x) == 0) {
-        holder.placeImageXY(new LineImage(new Posn(10, 0), Color.black), fromPath.x * 10 + 5,
-            fromPath.y * 10 + 10);
-      }
-      else {
-        holder.placeImageXY(new LineImage(new Posn(0, 10), Color.black), fromPath.x * 10 + 10,
-            fromPath.y * 10 + 5);
-      }
-    }
-    if (this.winScreen) {
-      holder.placeImageXY(new TextImage("Congratulations :)", Color.black), this.xLength * 5,
-          this.yLength * 10 + 50);
+  // The exponent that n^power * log(n)^logs has over the measured sizes
+  double modelGrowth(int power, int logs) {
+    double[] model = new double[this.seconds.length];
+    for (int i = 0; i < model.length; i++) {
+      model[i] = Math.pow(this.cells(i), power) * Math.pow(Math.log(this.cells(i)), logs);
     }
+    return this.slope(model);
+  }
 
-    return holder;
+  // Does the phase grow no faster than n^power * log(n)^logs, within TOLERANCE?
+  boolean within(int power, int logs) {
+    return this.relativeGrowth() <= this.modelGrowth(power, logs) + TOLERANCE;
   }
-}
 
-//Represents a mutable collection of items
-interface ICollection<T> {
-  // Is this collection empty?
-  boolean isEmpty();
+  // A table of the sizes and times with the fitted exponent
+  String report(String name) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < this.seconds.length; i++) {
+      result.append(String.format("%s: %dx%d %.6fs%n", name, this.widths[i], this.heights[i],
+          this.seconds[i]));
+    }
+    result.append(String.format("%s: grows as n^%.2f, or n^%.2f next to its reference%n",
+        name, this.growth(), this.relativeGrowth()));
+    return result.toString();
+  }
 
-  // EFFECT: adds the item to the collection
-  void add(T item);
+  // The bytes of heap still reachable, after collecting as much garbage as possible
+  static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
 
-  // Returns the first item of the collection
-  // EFFECT: removes that first item
-  T remove();
+  // The bytes per cell a MazeWorld of the given size keeps after initMaze
+  static double bytesPerCell(int width, int height) {
+    long before = usedHeap();
+    MazeWorld world = new MazeWorld(width, height, 1);
+    long after = usedHeap();
+    // Keeps the world reachable until after it is measured
+    return (after - before) / (double) (world.xLength * world.yLength);
+  }
 }
 
-// a representation of a stack
-class Stack<T> implements ICollection<T> {
-  ArrayDeque<T> contents;
+// Timings for the primitive maze structures on large boards.
+// Run with: java MazeBenchmarks <benchmark> [width] [height]
+class MazeBenchmarks {
+  public static void main(String[] args) {
+    String name = args.length > 0 ? args[0] : "lca";
+    int width = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int height = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    if (name.equals("lca")) {
+      benchLca(width, height, 2000000);
+    }
+    else if (name.equals("junction")) {
+      benchJunction(width, height);
+    }
+    else if (name.equals("offheap")) {
+      benchOffHeap(width, height, args.length > 3 ? args[3] : null);
+    }
+    else if (name.equals("threaded")) {
+      benchThreaded(width, height, 2.0);
+    }
+    else if (name.equals("layout")) {
+      benchLayout(width, height);
+    }
+    else if (name.equals("scaling")) {
+      benchScaling(width * height);
+    }
+    else {
+      System.out.println("Unknown benchmark: " + name);
+    }
+  }
 
-  Stack() {
-    this.contents = new ArrayDeque<T>();
+  // Seconds since the given System.nanoTime
+  static double since(long start) {
+    return (System.nanoTime() - start) / 1e9;
   }
 
-  // Is this collection empty?
-  public boolean isEmpty() {
-    return this.contents.isEmpty();
+  // Compares solving over a JunctionGraph to a breadth first search over cells
+  static void benchJunction(int width, int height) {
+    MazeGrid grid = MazeGrid.kruskal(width, height, new Random(1));
+    int size = grid.size();
+
+    long start = System.nanoTime();
+    int[] prev = new int[size];
+    int[] queue = new int[size];
+    int breadthExpansions = grid.search(grid.first(), grid.last(), prev, queue);
+    double breadthSeconds = since(start);
+    // The graph is searched depth first, so the cells are too, to compare like with like
+    SearchWorker depth = new SearchWorker(grid, false, 0, 0);
+    start = System.nanoTime();
+    while (!depth.finished) {
+      depth.step();
+    }
+    double depthSeconds = since(start);
+    long cellExpansions = depth.steps;
+    // The passages, plus the predecessor and queue or stack arrays of either search
+    long cellBytes = size + 8L * size;
+    System.out.printf("cells: %d expansions breadth first in %.3fs, %d depth first in %.3fs,"
+        + " %d bytes%n", breadthExpansions, breadthSeconds, cellExpansions, depthSeconds,
+        cellBytes);
+
+    start = System.nanoTime();
+    JunctionGraph graph = new JunctionGraph(grid);
+    double buildSeconds = since(start);
+    start = System.nanoTime();
+    int[] path = graph.solve();
+    double graphSeconds = since(start);
+    // The graph and the grid it keeps, plus the stack and predecessor arrays
+    long graphBytes = graph.bytes() + graph.searchBytes();
+    System.out.printf("graph: %d of %d cells are nodes, built in %.3fs%n",
+        graph.nodeCell.length, size, buildSeconds);
+    System.out.printf("graph: %d expansions in %.3fs, %d bytes, path of %d cells%n",
+        graph.expansions, graphSeconds, graphBytes, path.length);
+    System.out.printf("graph: %.1fx fewer expansions than depth first (%.1fx than breadth first),"
+        + " %.1fx %s memory%n", (double) cellExpansions / graph.expansions,
+        (double) breadthExpansions / graph.expansions,
+        graphBytes <= cellBytes ? (double) cellBytes / graphBytes
+            : (double) graphBytes / cellBytes,
+        graphBytes <= cellBytes ? "less" : "more");
   }
 
-  // Returns the first item of the collection
-  // EFFECT: removes that first item
-  public T remove() {
-    return this.contents.removeFirst();
+  // The number of garbage collections so far
+  static long collections() {
+    long total = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, bean.getCollectionCount());
+    }
+    return total;
   }
 
-  // EFFECT: adds the item to the collection
-  public void add(T item) {
-    this.contents.addFirst(item);
+  // Generates and solves an OffHeapMaze, in memory or mapped to the named file
+  static void benchOffHeap(int width, int height, String fileName) {
+    try {
+      long gcs = collections();
+      long start = System.nanoTime();
+      OffHeapMaze maze = fileName == null ? OffHeapMaze.allocate(width, height)
+          : OffHeapMaze.mapped(fileName, width, height);
+      maze.generate(new Random(1));
+      System.out.printf("offheap: generated %d cells %s in %.3fs%n", maze.size(),
+          maze.inFile ? "in a mapped file" : "in direct buffers", since(start));
+      start = System.nanoTime();
+      long steps = maze.solve();
+      System.out.printf("offheap: solved in %d steps in %.3fs%n", steps, since(start));
+      maze.force();
+      System.out.printf("offheap: %d garbage collections%n", collections() - gcs);
+    }
+    catch (IOException e) {
+      System.out.println("Could not map " + fileName + ": " + e.getMessage());
+    }
   }
-}
 
-class Queue<T> implements ICollection<T> {
-  ArrayDeque<T> contents;
+  // Draws a snapshot of a search to nowhere, standing in for makeScene
+  static void render(MazeGrid grid, byte[] states) {
+    try {
+      new MazeExporter(new SnapshotView(grid, states, Color.cyan), 2, true)
+          .writePGM(OutputStream.nullOutputStream());
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 
-  Queue() {
-    this.contents = new ArrayDeque<T>();
+  // Compares searching and rendering in turn on one thread to searching on
+  // a SearchWorker while rendering its snapshots, each for the given seconds
+  static void benchThreaded(int width, int height, double seconds) {
+    MazeGrid grid = MazeGrid.kruskal(width, height, new Random(1));
+    long limit = (long) (seconds * 1e9);
+
+    // One step per tick, as onTick does
+    SearchWorker coupled = new SearchWorker(grid, true, 0, 0);
+    int frames = 0;
+    long start = System.nanoTime();
+    while (System.nanoTime() - start < limit && !coupled.finished) {
+      coupled.step();
+      render(grid, coupled.live);
+      frames++;
+    }
+    double elapsed = since(start);
+    System.out.printf("coupled: %.0f steps/s, %.1f frames/s%n", coupled.steps / elapsed,
+        frames / elapsed);
+
+    SearchWorker worker = new SearchWorker(grid, true, 0, 1000000);
+    frames = 0;
+    start = System.nanoTime();
+    worker.start();
+    while (System.nanoTime() - start < limit && !worker.snapshotDone()) {
+      render(grid, worker.snapshot());
+      frames++;
+    }
+    elapsed = since(start);
+    worker.stop();
+    System.out.printf("threaded: %.0f steps/s, %.1f frames/s, %d steps in last frame%n",
+        worker.stepsPerSecond(), frames / elapsed, worker.snapshotSteps());
   }
 
-  // Is this collection empty?
-  public boolean isEmpty() {
-    return this.contents.isEmpty();
+  // Compares generation and searches over the same board in row major order,
+  // in Morton order inside 16x16 tiles, and in plain Morton order
+  static void benchLayout(int width, int height) {
+    ICellLayout[] layouts = new ICellLayout[] { new RowMajorLayout(width, height),
+        new MortonLayout(width, height, 4), new MortonLayout(width, height) };
+    String[] names = new String[] { "row major", "tiled", "morton" };
+    // The first round warms up the JIT
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < layouts.length; i++) {
+        long start = System.nanoTime();
+        MazeGrid grid = MazeGrid.kruskal(layouts[i], new Random(1));
+        double generate = since(start);
+
+        int[] dist = new int[grid.size()];
+        int[] queue = new int[grid.size()];
+        start = System.nanoTime();
+        grid.farthest(grid.first(), dist, queue);
+        double breadth = since(start);
+
+        SearchWorker depth = new SearchWorker(grid, false, 0, 0);
+        start = System.nanoTime();
+        while (!depth.finished) {
+          depth.step();
+        }
+        double depthSeconds = since(start);
+        if (round > 0) {
+          System.out.printf("%-9s: %d cells (%d with padding), generate %.3fs, bfs %.3fs,"
+              + " dfs %.3fs%n", names[i], grid.cells(), grid.size(), generate, breadth,
+              depthSeconds);
+        }
+      }
+    }
   }
 
-  // Returns the first item of the collection
-  // EFFECT: removes that first item
-  public T remove() {
-    return this.contents.removeFirst();
+  // Reports how each phase grows, from 2^10 cells up to the given number,
+  // and the bytes per cell a MazeWorld keeps
+  static void benchScaling(int maxCells) {
+    int top = Integer.highestOneBit(maxCells);
+    String[] names = new String[] { "initMaze", "bfs", "dfs", "move", "kruskal", "stats", "lca",
+        "junction" };
+    IScalingPhase[] phases = new IScalingPhase[] { new InitMazePhase(), new SearchPhase("b"),
+        new SearchPhase("d"), new ManualPhase(), new GridPhase("kruskal"),
+        new GridPhase("stats"), new GridPhase("lca"), new GridPhase("junction") };
+    for (int i = 0; i < phases.length; i++) {
+      ScalingHarness harness = new ScalingHarness(phases[i], 1 << 10, top);
+      harness.measure();
+      System.out.print(harness.report(names[i]));
+    }
+    System.out.printf("MazeWorld: %.1f bytes per cell, budget %.0f%n",
+        ScalingHarness.bytesPerCell(512, 512), ScalingHarness.BYTES_PER_CELL);
   }
 
-  // EFFECT: adds the item to the collection
-  public void add(T item) {
-    this.contents.addLast(item);
+  // Compares LcaIndex distance queries to a breadth first search per query
+  static void benchLca(int width, int height, int queries) {
+    Random rand = new Random(1);
+    MazeGrid grid = MazeGrid.kruskal(width, height, rand);
+    int size = grid.size();
+    int[] from = new int[queries];
+    int[] to = new int[queries];
+    for (int i = 0; i < queries; i++) {
+      from[i] = rand.nextInt(size);
+      to[i] = rand.nextInt(size);
+    }
+
+    long start = System.nanoTime();
+    LcaIndex index = new LcaIndex(grid);
+    System.out.printf("lca: build %d cells in %.3fs%n", size, since(start));
+
+    start = System.nanoTime();
+    long total = 0;
+    for (int i = 0; i < queries; i++) {
+      total += index.distance(from[i], to[i]);
+    }
+    double lcaSeconds = since(start);
+    System.out.printf("lca: %d queries in %.3fs, %.1f ns/query (checksum %d)%n", queries,
+        lcaSeconds, lcaSeconds * 1e9 / queries, total);
+
+    // A search per query is far too slow for all of them, so time a sample
+    int samples = Math.min(queries, Math.max(10, 200000000 / size));
+    int[] dist = new int[size];
+    int[] queue = new int[size];
+    int[] found = new int[samples];
+    Arrays.fill(dist, -1);
+    start = System.nanoTime();
+    for (int i = 0; i < samples; i++) {
+      found[i] = grid.distance(from[i], to[i], dist, queue);
+    }
+    double bfsSeconds = since(start);
+
+    // Checks both against a search of the whole maze, outside the timing
+    for (int i = 0; i < samples; i++) {
+      grid.farthest(from[i], dist, queue);
+      if (found[i] != dist[to[i]] || found[i] != index.distance(from[i], to[i])) {
+        throw new IllegalStateException("Distances differ for query " + i);
+      }
+    }
+    System.out.printf("bfs: %d queries in %.3fs, %.1f ns/query, %.0fx slower%n", samples,
+        bfsSeconds, bfsSeconds * 1e9 / samples,
+        (bfsSeconds / samples) / (lcaSeconds / queries));
   }
 }
 
@@ -820,10 +3212,530 @@ class ExampleMaze {
     t.checkExpect(this.mw1.curPath.y, 0);
   }
 
+  // Tests the view of the maze used for exporting
+  void testMazeWorldView(Tester t) {
+    this.initExample();
+    MazeWorldView view = new MazeWorldView(this.mw4);
+    t.checkExpect(view.width(), 2);
+    t.checkExpect(view.height(), 3);
+    t.checkExpect(view.openDown(0, 0), false);
+    t.checkExpect(view.openRight(0, 0), true);
+    t.checkExpect(view.openDown(1, 1), false);
+    t.checkExpect(view.openRight(1, 0), false);
+    t.checkExpect(view.openDown(0, 2), false);
+    t.checkExpect(view.colorAt(0, 0), Color.green);
+    t.checkExpect(view.colorAt(1, 2), Color.red);
+    // Searching leaves the walls as they were
+    this.mw4.onKeyEvent("b");
+    while (this.mw4.search) {
+      this.mw4.searchHelp(this.mw4.worklist);
+    }
+    t.checkExpect(new MazeWorldView(this.mw4).openRight(0, 0), true);
+  }
+
+  // Tests writing a PGM image
+  void testWritePGM(Tester t) throws IOException {
+    this.initExample();
+    MazeExporter exporter = new MazeExporter(new MazeWorldView(this.mw4), 2, false);
+    t.checkExpect(exporter.imageWidth(), 5);
+    t.checkExpect(exporter.imageHeight(), 7);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.writePGM(out);
+    byte[] bytes = out.toByteArray();
+    int header = "P5\n5 7\n255\n".length();
+    t.checkExpect(new String(bytes, 0, header, "US-ASCII"), "P5\n5 7\n255\n");
+    t.checkExpect(bytes.length, header + 35);
+    // Top border, then the open passage between (0, 0) and (1, 0)
+    t.checkExpect(bytes[header], (byte) 0);
+    t.checkExpect(bytes[header + 5 + 1], (byte) 255);
+    t.checkExpect(bytes[header + 5 + 2], (byte) 255);
+    // The wall below (0, 0)
+    t.checkExpect(bytes[header + 10 + 1], (byte) 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("Cell size must be at least 2 pixels"), "MazeExporter",
+        new MazeWorldView(this.mw4), 1, false);
+  }
+
+  // Tests writing a PNG image by reading it back in
+  void testWritePNG(Tester t) throws IOException {
+    this.initExample();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new MazeExporter(new MazeWorldView(this.mw4), 10, true).writePNG(out);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    t.checkExpect(image.getWidth(), 21);
+    t.checkExpect(image.getHeight(), 31);
+    t.checkExpect(image.getRGB(0, 0), Color.black.getRGB());
+    t.checkExpect(image.getRGB(5, 5), Color.green.getRGB());
+    t.checkExpect(image.getRGB(15, 25), Color.red.getRGB());
+    t.checkExpect(image.getRGB(5, 25), Color.lightGray.getRGB());
+    t.checkExpect(image.getRGB(10, 5), Color.green.getRGB());
+    t.checkExpect(image.getRGB(5, 10), Color.black.getRGB());
+    t.checkExpect(image.getRGB(20, 5), Color.black.getRGB());
+  }
+
+  // Tests building a MazeGrid from a maze
+  void testMazeGrid(Tester t) {
+    this.initExample();
+    MazeGrid grid = new MazeGrid(this.mw4);
+    t.checkExpect(grid.size(), 6);
+    t.checkExpect(grid.passages[0], (byte) MazeGrid.RIGHT);
+    t.checkExpect(grid.passages[3], (byte) (MazeGrid.LEFT | MazeGrid.UP));
+    t.checkExpect(grid.degree(2), 2);
+    t.checkExpect(grid.neighbor(3, MazeGrid.UP), 1);
+    t.checkExpect(MazeGrid.opposite(MazeGrid.RIGHT), MazeGrid.LEFT);
+    t.checkExpect(MazeGrid.opposite(MazeGrid.UP), MazeGrid.DOWN);
+    grid.close(3, MazeGrid.UP);
+    t.checkExpect(grid.passages[1], (byte) MazeGrid.LEFT);
+    grid.open(3, MazeGrid.UP);
+    t.checkExpect(grid.openDown(1, 0), true);
+    t.checkExpect(grid.openRight(1, 0), false);
+  }
+
+  // Tests the maze statistics on a maze that is a single winding path
+  void testMazeStats(Tester t) {
+    this.initExample();
+    MazeStats stats = new MazeStats(this.mw4);
+    t.checkExpect(stats.solutionLength, 5);
+    t.checkExpect(stats.diameter, 5);
+    t.checkExpect(stats.deadEnds, 2);
+    t.checkExpect(stats.junctions, 0);
+    t.checkExpect(stats.corridors, 1);
+    t.checkExpect(stats.corridorLengths[5], 1);
+
+    // The solution length matches the path found by a search
+    MazeStats stats1 = new MazeStats(this.mw1);
+    this.mw1.onKeyEvent("b");
+    while (this.mw1.search) {
+      this.mw1.searchHelp(this.mw1.worklist);
+    }
+    int steps = 0;
+    for (Path at = this.mw1.last; this.mw1.path.get(at) != null; at = this.mw1.path.get(at)) {
+      steps++;
+    }
+    t.checkExpect(stats1.solutionLength, steps);
+    // Every passage is in exactly one corridor
+    int passages = 0;
+    for (int i = 0; i < stats1.corridorLengths.length; i++) {
+      passages += i * stats1.corridorLengths[i];
+    }
+    t.checkExpect(passages, 24);
+  }
+
+  // Tests the maze statistics on a comb big enough to be counted in parallel
+  void testMazeStatsParallel(Tester t) {
+    MazeGrid comb = new MazeGrid(300, 300);
+    for (int x = 0; x < 300; x++) {
+      if (x < 299) {
+        comb.open(x, MazeGrid.RIGHT);
+      }
+      for (int y = 0; y < 299; y++) {
+        comb.open(x + y * 300, MazeGrid.DOWN);
+      }
+    }
+    MazeStats stats = new MazeStats(comb);
+    t.checkExpect(stats.solutionLength, 598);
+    t.checkExpect(stats.diameter, 897);
+    t.checkExpect(stats.deadEnds, 300);
+    t.checkExpect(stats.junctions, 298);
+    t.checkExpect(stats.corridors, 597);
+    t.checkExpect(stats.corridorLengths.length, 301);
+    t.checkExpect(stats.corridorLengths[1], 297);
+    t.checkExpect(stats.corridorLengths[299], 298);
+    t.checkExpect(stats.corridorLengths[300], 2);
+  }
+
+  // Tests generating a maze over primitive arrays
+  void testKruskalGrid(Tester t) {
+    MazeGrid grid = MazeGrid.kruskal(30, 20, new Random(5));
+    int passages = 0;
+    for (int cell = 0; cell < grid.size(); cell++) {
+      passages += grid.degree(cell);
+    }
+    // A spanning tree has one passage fewer than it has cells
+    t.checkExpect(passages / 2, 599);
+    t.checkExpect(new MazeStats(grid).solutionLength > 0, true);
+    t.checkExpect(new LcaIndex(grid).euler.length, 1199);
+  }
+
+  // Tests the LcaIndex on the single winding path of mw4
+  void testLcaIndex(Tester t) {
+    this.initExample();
+    LcaIndex index = new LcaIndex(this.mw4);
+    t.checkExpect(index.euler, new int[] { 0, 1, 3, 2, 4, 5, 4, 2, 3, 1, 0 });
+    t.checkExpect(index.lca(5, 2), 2);
+    t.checkExpect(index.distance(0, 5), 5);
+    t.checkExpect(index.distance(3, 3), 0);
+    t.checkExpect(index.path(4, 1), new int[] { 4, 2, 3, 1 });
+    t.checkExpect(index.path(0, 0), new int[] { 0 });
+  }
+
+  // Tests the LcaIndex against a search from each cell on a maze spanning many blocks
+  void testLcaIndexSearch(Tester t) {
+    MazeGrid grid = MazeGrid.kruskal(40, 25, new Random(7));
+    LcaIndex index = new LcaIndex(grid);
+    int[] dist = new int[grid.size()];
+    int[] queue = new int[grid.size()];
+    Random rand = new Random(8);
+    boolean same = true;
+    for (int i = 0; i < 200; i++) {
+      int a = rand.nextInt(grid.size());
+      int b = rand.nextInt(grid.size());
+      grid.farthest(a, dist, queue);
+      int[] cleared = new int[grid.size()];
+      Arrays.fill(cleared, -1);
+      same = same && grid.distance(a, b, cleared, new int[grid.size()]) == dist[b];
+      same = same && cleared[a] == -1 && cleared[b] == -1;
+      int[] path = index.path(a, b);
+      same = same && dist[b] == index.distance(a, b) && path.length == dist[b] + 1
+          && path[0] == a && path[path.length - 1] == b;
+      for (int j = 1; j < path.length; j++) {
+        same = same && index.distance(path[j - 1], path[j]) == 1;
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // Tests collapsing the corridors of a maze into a junction graph
+  void testJunctionGraph(Tester t) {
+    this.initExample();
+    // mw4 is one winding path, so only the entrance and exit are left
+    JunctionGraph line = new JunctionGraph(new MazeGrid(this.mw4));
+    t.checkExpect(line.nodeCell, new int[] { 0, 5 });
+    t.checkExpect(line.edgeTarget, new int[] { 1, 0 });
+    t.checkExpect(line.edgeWeight, new int[] { 5, 5 });
+    t.checkExpect(line.nodeOf(3) < 0, true);
+    t.checkExpect(line.solve(), new int[] { 0, 1, 3, 2, 4, 5 });
+    t.checkExpect(line.expansions, 2);
+
+    // The expanded path matches a search over the cells
+    MazeGrid grid = MazeGrid.kruskal(40, 30, new Random(3));
+    JunctionGraph graph = new JunctionGraph(grid);
+    int[] cells = graph.solve();
+    int[] prev = new int[grid.size()];
+    int[] queue = new int[grid.size()];
+    int expanded = grid.search(0, grid.size() - 1, prev, queue);
+    int steps = 0;
+    boolean same = cells[cells.length - 1] == grid.size() - 1;
+    for (int at = grid.size() - 1; at != 0; at = prev[at]) {
+      steps++;
+      same = same && cells[cells.length - 1 - steps] == prev[at];
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(cells.length, steps + 1);
+    t.checkExpect(graph.expansions < expanded, true);
+    t.checkExpect(graph.nodeCell.length < grid.size(), true);
+    // Only the entrance and exit may be dead ends, and every edge ends at a node
+    boolean junctions = true;
+    for (int cell : graph.nodeCell) {
+      junctions = junctions && (grid.degree(cell) > 2 || cell == 0 || cell == grid.size() - 1);
+    }
+    t.checkExpect(junctions, true);
+    t.checkExpect(graph.edgeStart[graph.nodeCell.length], graph.edgeTarget.length);
+    t.checkExpect(graph.edgeTarget.length < 4 * graph.nodeCell.length, true);
+  }
+
+  // Tests solving a MazeWorld over its junctions
+  void testSolveCompacted(Tester t) {
+    this.initExample();
+    this.mw1.onKeyEvent("c");
+    t.checkExpect(this.mw1.complete, true);
+    t.checkExpect(this.mw1.search, false);
+    this.mw1.onTick();
+    // The same path the depth first search in testRemake finds
+    t.checkExpect(this.mw1.pathBoard.get(2).curColor, Color.orange);
+    t.checkExpect(this.mw1.pathBoard.get(7).curColor, Color.orange);
+    t.checkExpect(this.mw1.last.curColor, Color.orange);
+    t.checkExpect(this.mw1.path.get(this.mw1.pathBoard.get(1)), this.mw1.first);
+  }
+
+  // Tests generating and solving a maze kept off the heap
+  void testOffHeapMaze(Tester t) throws IOException {
+    OffHeapMaze maze = OffHeapMaze.allocate(30, 20);
+    t.checkExpect(maze.size(), 600L);
+    maze.generate(new Random(9));
+    // Copy it into a MazeGrid to check it against the other structures
+    MazeGrid grid = new MazeGrid(30, 20);
+    int passages = 0;
+    for (int cell = 0; cell < 600; cell++) {
+      if (maze.openRight(cell % 30, cell / 30)) {
+        grid.open(cell, MazeGrid.RIGHT);
+        passages++;
+      }
+      if (maze.openDown(cell % 30, cell / 30)) {
+        grid.open(cell, MazeGrid.DOWN);
+        passages++;
+      }
+    }
+    t.checkExpect(passages, 599);
+    // A spanning tree reaches every cell
+    int[] dist = new int[600];
+    grid.farthest(0, dist, new int[600]);
+    boolean reached = true;
+    for (int d : dist) {
+      reached = reached && d >= 0;
+    }
+    t.checkExpect(reached, true);
+    t.checkExpect(maze.solve(), (long) new MazeStats(grid).solutionLength);
+    t.checkExpect(maze.colorAt(0, 0), Color.green);
+    t.checkExpect(maze.isOpen(30, OffHeapMaze.NORTH), maze.openDown(0, 0));
+    t.checkExpect(maze.isOpen(0, OffHeapMaze.WEST), false);
+  }
+
+  // Tests that a maze too big for direct buffers is mapped from a file
+  void testOffHeapMazeAllocate(Tester t) throws IOException {
+    t.checkExpect(OffHeapMaze.allocate(6, 4, 24).inFile, false);
+    OffHeapMaze maze = OffHeapMaze.allocate(6, 4, 23);
+    t.checkExpect(maze.inFile, true);
+    maze.generate(new Random(2));
+    t.checkExpect(maze.solve() > 0, true);
+    t.checkExpect(OffHeapMaze.directBytesLeft() > 0, true);
+  }
+
+  // Tests that a mapped maze keeps its passages in the file
+  void testOffHeapMazeMapped(Tester t) throws IOException {
+    File file = File.createTempFile("maze", ".bin");
+    file.deleteOnExit();
+    OffHeapMaze maze = OffHeapMaze.mapped(file.getPath(), 6, 4);
+    maze.generate(new Random(2));
+    long steps = maze.solve();
+    maze.force();
+    t.checkExpect(file.length(), 24L);
+    OffHeapMaze again = OffHeapMaze.mapped(file.getPath(), 6, 4);
+    t.checkExpect(again.get(23) & OffHeapMaze.ON_PATH, OffHeapMaze.ON_PATH);
+    t.checkExpect(again.solve(), steps);
+  }
+
+  // Tests stepping a search the way the worker thread does
+  void testSearchWorkerStep(Tester t) {
+    this.initExample();
+    SearchWorker worker = new SearchWorker(new MazeGrid(this.mw4), true, 0, 0);
+    worker.step();
+    t.checkExpect(worker.live[0], SearchWorker.SEARCHED);
+    t.checkExpect(worker.steps, 1L);
+    for (int i = 0; i < 5; i++) {
+      worker.step();
+    }
+    t.checkExpect(worker.finished, true);
+    t.checkExpect(worker.live, new byte[] { 2, 2, 2, 2, 2, 2 });
+    // Nothing is published until the worker says so
+    t.checkExpect(worker.snapshot(), new byte[6]);
+    worker.publish();
+    t.checkExpect(worker.snapshot(), worker.live);
+    t.checkExpect(worker.snapshotSteps(), 6L);
+    t.checkExpect(worker.snapshotDone(), true);
+  }
+
+  // Tests that snapshots are swapped through without ever sharing a buffer
+  void testSearchWorkerSwap(Tester t) {
+    this.initExample();
+    SearchWorker worker = new SearchWorker(new MazeGrid(this.mw1), false, 0, 0);
+    worker.step();
+    worker.publish();
+    worker.step();
+    worker.publish();
+    // Only the newest of the two is seen
+    t.checkExpect(worker.snapshotSteps(), 0L);
+    worker.snapshot();
+    t.checkExpect(worker.snapshotSteps(), 2L);
+    // Taking again without a new publish keeps the same buffer
+    worker.snapshot();
+    t.checkExpect(worker.snapshotSteps(), 2L);
+    t.checkExpect(worker.back != worker.front, true);
+    t.checkExpect(worker.back != (worker.middle.get() & 3), true);
+    t.checkExpect(worker.front != (worker.middle.get() & 3), true);
+  }
+
+  // Tests a threaded search through onKeyEvent and onTick
+  void testThreadedSearch(Tester t) throws InterruptedException {
+    this.initExample();
+    this.mw1.onKeyEvent("w");
+    t.checkExpect(this.mw1.threaded, true);
+    this.mw1.onKeyEvent("b");
+    t.checkExpect(this.mw1.worker != null, true);
+    this.mw1.worker.thread.join();
+    this.mw1.onTick();
+    t.checkExpect(this.mw1.worker, null);
+    t.checkExpect(this.mw1.search, false);
+    t.checkExpect(this.mw1.complete, true);
+    t.checkExpect(this.mw1.pathBoard.get(7).curColor, Color.orange);
+    t.checkExpect(this.mw1.last.curColor, Color.orange);
+    // Resetting stops a search that is still running
+    this.mw1.onKeyEvent("r");
+    this.mw1.onKeyEvent("d");
+    this.mw1.onKeyEvent("r");
+    t.checkExpect(this.mw1.worker, null);
+    t.checkExpect(this.mw1.search, false);
+  }
+
+  // Tests the row major layout
+  void testRowMajorLayout(Tester t) {
+    ICellLayout layout = new RowMajorLayout(5, 3);
+    t.checkExpect(layout.size(), 15);
+    t.checkExpect(layout.index(2, 1), 7);
+    t.checkExpect(layout.x(7), 2);
+    t.checkExpect(layout.y(7), 1);
+    t.checkExpect(layout.neighbor(7, MazeGrid.UP), 2);
+    t.checkExpect(layout.neighbor(7, MazeGrid.LEFT), 6);
+  }
+
+  // Tests the Morton layout, in tiles and over the whole board
+  void testMortonLayout(Tester t) {
+    t.checkExpect(MortonLayout.spread(0xb), 0x45);
+    t.checkExpect(MortonLayout.gather(0x45), 0xb);
+    MortonLayout whole = new MortonLayout(5, 3);
+    t.checkExpect(whole.tileBits, 2);
+    t.checkExpect(whole.size(), 32);
+    t.checkExpect(whole.index(0, 0), 0);
+    t.checkExpect(whole.index(1, 0), 1);
+    t.checkExpect(whole.index(0, 1), 2);
+    t.checkExpect(whole.index(3, 2), 13);
+    t.checkExpect(whole.index(4, 0), 16);
+    // Long boards take a row or column of tiles the size of the shorter side
+    t.checkExpect(new MortonLayout(100, 60).size(), 8192);
+    t.checkExpect(new MortonLayout(4096, 64).size(), 262144);
+    t.checkExpect(new MortonLayout(64, 4096).size(), 262144);
+    t.checkExpect(new MortonLayout(40000, 10).tileBits, 4);
+    MortonLayout tiled = new MortonLayout(10, 7, 2);
+    t.checkExpect(tiled.size(), 96);
+    t.checkExpect(tiled.index(4, 0), 16);
+    t.checkExpect(tiled.index(1, 4), 49);
+    // Every cell round trips, and every neighbor matches its coordinates
+    boolean same = true;
+    for (int y = 0; y < 7; y++) {
+      for (int x = 0; x < 10; x++) {
+        int index = tiled.index(x, y);
+        same = same && tiled.x(index) == x && tiled.y(index) == y;
+        same = same && (x == 9 || tiled.neighbor(index, MazeGrid.RIGHT) == tiled.index(x + 1, y));
+        same = same && (x == 0 || tiled.neighbor(index, MazeGrid.LEFT) == tiled.index(x - 1, y));
+        same = same && (y == 6 || tiled.neighbor(index, MazeGrid.DOWN) == tiled.index(x, y + 1));
+        same = same && (y == 0 || tiled.neighbor(index, MazeGrid.UP) == tiled.index(x, y - 1));
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkConstructorException(
+        new IllegalArgumentException("Tiles must be 1 to 2^15 cells a side"), "MortonLayout",
+        10, 10, 16);
+    t.checkConstructorException(
+        new IllegalArgumentException("Boards must fit in 2^31 indexes"), "MortonLayout",
+        50000, 50000, 4);
+  }
+
+  // Tests that a maze stored in Morton order is the same maze
+  void testMortonMaze(Tester t) {
+    this.initExample();
+    MazeWorld morton = new MazeWorld(new MortonLayout(5, 5), 1);
+    t.checkExpect(morton.pathBoard.size(), 64);
+    t.checkExpect(morton.pathBoard.get(2), new Path(0, 1));
+    t.checkExpect(morton.pathBoard.get(17), null);
+    t.checkExpect(morton.last, new Path(4, 4));
+    t.checkExpect(morton.board.size(), 24);
+    // The walls are made in the same order with the same seed
+    MazeStats rows = new MazeStats(this.mw1);
+    MazeStats stats = new MazeStats(morton);
+    t.checkExpect(stats.solutionLength, rows.solutionLength);
+    t.checkExpect(stats.diameter, rows.diameter);
+    t.checkExpect(stats.deadEnds, rows.deadEnds);
+    t.checkExpect(stats.corridorLengths, rows.corridorLengths);
+    t.checkExpect(new JunctionGraph(new MazeGrid(morton)).solve().length,
+        rows.solutionLength + 1);
+    // The moves of testMove work the same way
+    morton.move("right");
+    morton.move("right");
+    morton.move("down");
+    t.checkExpect(morton.curPath, new Path(2, 1));
+    morton.onKeyEvent("d");
+    while (morton.search) {
+      morton.searchHelp(morton.worklist);
+    }
+    t.checkExpect(morton.last.curColor, Color.orange);
+  }
+
+  // Tests a grid generated straight into a Morton layout
+  void testMortonGrid(Tester t) {
+    MazeGrid grid = MazeGrid.kruskal(new MortonLayout(30, 20, 3), new Random(4));
+    t.checkExpect(grid.size(), 32 * 24);
+    t.checkExpect(grid.cells(), 600);
+    int passages = 0;
+    for (int cell = 0; cell < grid.size(); cell++) {
+      passages += grid.degree(cell);
+    }
+    t.checkExpect(passages / 2, 599);
+    LcaIndex index = new LcaIndex(grid);
+    MazeStats stats = new MazeStats(grid);
+    t.checkExpect(index.distance(grid.first(), grid.last()), stats.solutionLength);
+    t.checkExpect(new JunctionGraph(grid).solve().length, stats.solutionLength + 1);
+  }
+
+  // Tests fitting the growth of a phase
+  void testScalingHarness(Tester t) {
+    ScalingHarness harness = new ScalingHarness(new InitMazePhase(), 1 << 4, 1 << 7);
+    t.checkExpect(harness.widths, new int[] { 4, 8, 8, 16 });
+    t.checkExpect(harness.heights, new int[] { 4, 4, 8, 8 });
+    harness.seconds = new double[] { 1, 4, 16, 64 };
+    t.checkInexact(harness.growth(), 2.0, 0.001);
+    t.checkExpect(harness.within(1, 1), false);
+    t.checkExpect(harness.within(2, 0), true);
+    harness.seconds = new double[] { 1, 2, 4, 8 };
+    t.checkInexact(harness.growth(), 1.0, 0.001);
+    t.checkExpect(harness.within(1, 0), true);
+    t.checkInexact(harness.modelGrowth(1, 0), 1.0, 0.001);
+    t.checkExpect(harness.modelGrowth(1, 1) > 1.0, true);
+    // Over the sizes testScaling uses, growth past n log n fails
+    ScalingHarness wide = new ScalingHarness(new InitMazePhase(), 1 << 10, 1 << 15);
+    wide.seconds = this.series(wide, 1, 1);
+    t.checkExpect(wide.within(1, 1), true);
+    wide.seconds = this.series(wide, 1.5, 0);
+    t.checkExpect(wide.within(1, 1), false);
+    wide.seconds = this.series(wide, 1.4, 0);
+    t.checkExpect(wide.within(1, 0), false);
+    wide.seconds = this.series(wide, 1, 2);
+    t.checkExpect(wide.within(1, 0), false);
+    // Unless the linear reference slows down just as much
+    wide.seconds = this.series(wide, 1.4, 0);
+    wide.referenceSeconds = this.series(wide, 1.4, 0);
+    t.checkInexact(wide.relativeGrowth(), 1.0, 0.001);
+    t.checkExpect(wide.within(1, 0), true);
+  }
+
+  // Seconds growing as n^power * log(n)^logs over the harness's sizes
+  double[] series(ScalingHarness harness, double power, int logs) {
+    double[] seconds = new double[harness.widths.length];
+    for (int i = 0; i < seconds.length; i++) {
+      seconds[i] = 1e-9 * Math.pow(harness.cells(i), power)
+          * Math.pow(Math.log(harness.cells(i)), logs);
+    }
+    return seconds;
+  }
+
+  // Runs each phase at doubling sizes, and checks none grows faster than allowed
+  void testScaling(Tester t) {
+    IScalingPhase[] nLogN = new IScalingPhase[] { new InitMazePhase(), new SearchPhase("b"),
+        new SearchPhase("d"), new ManualPhase(), new GridPhase("junction") };
+    for (IScalingPhase phase : nLogN) {
+      ScalingHarness harness = new ScalingHarness(phase, 1 << 10, 1 << 15);
+      harness.measure();
+      t.checkExpect(harness.within(1, 1), true, harness.report(phase.getClass().getName()));
+    }
+    IScalingPhase[] linear = new IScalingPhase[] { new GridPhase("kruskal"),
+        new GridPhase("stats"), new GridPhase("lca") };
+    for (IScalingPhase phase : linear) {
+      ScalingHarness harness = new ScalingHarness(phase, 1 << 10, 1 << 15);
+      harness.measure();
+      t.checkExpect(harness.within(1, 0), true, harness.report(((GridPhase) phase).name));
+    }
+  }
+
+  // Checks the heap a MazeWorld keeps per cell stays within its budget
+  void testBytesPerCell(Tester t) {
+    double bytes = ScalingHarness.bytesPerCell(256, 256);
+    t.checkExpect(bytes <= ScalingHarness.BYTES_PER_CELL, true,
+        String.format("%.1f bytes per cell", bytes));
+  }
+
   // Creates a maze bigBang
   void testMaze(Tester t) {
     MazeWorld starterWorld = new MazeWorld(100, 60);
     int sceneSize = 1000;
-    starterWorld.bigBang(sceneSize, sceneSize, 0.005);
+    starterWorld.bigBang(sceneSize, sceneSize, MazeWorld.TICK_RATE);
   }
 }